@@ -0,0 +1,128 @@
+package hexadoku.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * A single benchmark: an operation that is run repeatedly on one thread and
+ * timed. Besides operations per second, the allocation rate and the time
+ * spent in garbage collection are measured.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public abstract class Benchmark
+{
+    /**
+     * The measurements taken by a run of a benchmark.
+     */
+    public static class Result
+    {
+        public final String name;
+        public final long ops;
+        public final double seconds, bytesPerOp, gcMillis;
+
+        Result(String name, long ops, double seconds, double bytesPerOp, double gcMillis)
+        {
+            this.name = name;
+            this.ops = ops;
+            this.seconds = seconds;
+            this.bytesPerOp = bytesPerOp;
+            this.gcMillis = gcMillis;
+        }
+
+        public double opsPerSecond()
+        {
+            return ops / seconds;
+        }
+
+        public double megabytesPerSecond()
+        {
+            return bytesPerOp * opsPerSecond() / (1024 * 1024);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%-32s %14.1f ops/s %12.1f B/op %10.1f MB/s %8.1f ms gc",
+                                 name, opsPerSecond(), bytesPerOp,
+                                 megabytesPerSecond(), gcMillis);
+        }
+    }
+
+    // Keeps the results of operations from being optimized away.
+    private static volatile int sink;
+
+    private final String name;
+
+    protected Benchmark(String name)
+    {
+        this.name = name;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Runs the operation being measured once.
+     *
+     * @param i the number of times the operation has been run before.
+     * @return anything computed by the operation.
+     */
+    protected abstract Object run(int i);
+
+    private static long allocatedBytes()
+    {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long gcMillis()
+    {
+        long millis = 0;
+
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0, gc.getCollectionTime());
+
+        return millis;
+    }
+
+    /**
+     * Runs the operation for a while without measuring it, so that it is
+     * compiled, and then for a while more while measuring it.
+     *
+     * @param warmupMillis how long to warm up for.
+     * @param measureMillis how long to measure for.
+     * @return the measurements.
+     */
+    public Result measure(long warmupMillis, long measureMillis)
+    {
+        long deadline, start, bytes, gc, ops = 0;
+        int i = 0, hash = 0;
+        Object out;
+
+        deadline = System.nanoTime() + warmupMillis * 1000000;
+        while(System.nanoTime() < deadline)
+            if((out = run(i++)) != null)
+                hash += out.hashCode();
+
+        bytes = allocatedBytes();
+        gc = gcMillis();
+        start = System.nanoTime();
+        deadline = start + measureMillis * 1000000;
+        do
+        {
+            if((out = run(i++)) != null)
+                hash += out.hashCode();
+            ops++;
+        } while(System.nanoTime() < deadline);
+
+        start = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        gc = gcMillis() - gc;
+        sink = hash;
+
+        return new Result(name, ops, start / 1e9, (double)bytes / ops, gc);
+    }
+}
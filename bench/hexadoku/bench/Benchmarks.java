@@ -0,0 +1,448 @@
+package hexadoku.bench;
+
+import hexadoku.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Runs the benchmarks. Each command line argument selects the benchmarks
+ * whose names contain it; with none, every benchmark is run.
+ *
+ * The system properties "bench.warmup" and "bench.time" set how many
+ * milliseconds each benchmark is warmed up and measured for, and
+ * "bench.results" names a CSV file to write the results to.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class Benchmarks
+{
+    // The number of seeded puzzles the solver is benchmarked on.
+    private static final int CORPUS_SIZE = 64;
+    // The number of seeded puzzles of each other size the solver is
+    // benchmarked on; big ones take a while to make.
+    private static final int SIZED_CORPUS_SIZE = 4;
+
+    // An output stream that throws everything away.
+    private static final OutputStream NULL_STREAM = new OutputStream()
+    {
+        public void write(int b)
+        {
+        }
+
+        public void write(byte[] b, int off, int len)
+        {
+        }
+    };
+
+    /**
+     * Creates the puzzles the solver is benchmarked on. They're the same
+     * every time, so results can be compared between runs.
+     *
+     * @return the puzzles.
+     */
+    static MaskedBoard[] corpus()
+    {
+        MaskedBoard[] boards = new MaskedBoard[CORPUS_SIZE];
+
+        for(int i = 0; i < CORPUS_SIZE; ++i)
+            boards[i] = new MaskedBoard(new RandomBoard(i), new SplittableRandom(i), 1);
+
+        return boards;
+    }
+
+    /**
+     * Writes the puzzles to a temporary corpus file.
+     *
+     * @param boards the puzzles.
+     * @return the corpus file, which is deleted when the JVM exits.
+     */
+    static File corpusFile(MaskedBoard[] boards) throws IOException
+    {
+        File file = File.createTempFile("hexadoku", ".corpus");
+        CorpusWriter writer;
+
+        file.deleteOnExit();
+        writer = new CorpusWriter(file);
+        try
+        {
+            for(int i = 0; i < boards.length; ++i)
+                writer.append(i, boards[i]);
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        return file;
+    }
+
+    /**
+     * Creates every benchmark.
+     *
+     * @return the benchmarks.
+     */
+    static List<Benchmark> all() throws IOException
+    {
+        final List<Benchmark> all = new ArrayList<Benchmark>();
+        final RandomBoard board = new RandomBoard(0);
+        final MaskedBoard[] corpus = corpus();
+        final PrintStream nowhere = new PrintStream(NULL_STREAM);
+        final CorpusReader reader = new CorpusReader(corpusFile(corpus));
+
+        all.add(new Benchmark("RandomBoard.new")
+        {
+            protected Object run(int i)
+            {
+                return new RandomBoard(i);
+            }
+        });
+
+        all.add(new Benchmark("RandomBoard.isValid")
+        {
+            protected Object run(int i)
+            {
+                return board.isValid();
+            }
+        });
+
+        // The validators are compared with RandomBoard.isValid on the
+        // solutions, and work out candidates for the puzzles.
+        final short[][] solutionDigits = new short[CORPUS_SIZE][Board.NUM_CELLS];
+        final short[][] puzzleDigits = new short[CORPUS_SIZE][Board.NUM_CELLS];
+
+        for(int i = 0; i < CORPUS_SIZE; ++i)
+        {
+            Validator.digitsOf(corpus[i].getSolution(), solutionDigits[i]);
+            Validator.digitsOf(corpus[i], puzzleDigits[i]);
+        }
+
+        for(final Validator validator : validators())
+        {
+            all.add(new Benchmark("Validator." + validator.getName() + ".zoneMasks")
+            {
+                final int[] masks = new int[Board.NUM_ZONES];
+
+                protected Object run(int i)
+                {
+                    return validator.zoneMasks(solutionDigits[i % CORPUS_SIZE], masks);
+                }
+            });
+
+            all.add(new Benchmark("Validator." + validator.getName() + ".candidates")
+            {
+                final int[] masks = new int[Board.NUM_ZONES];
+                final short[] candidates = new short[Board.NUM_CELLS];
+
+                protected Object run(int i)
+                {
+                    short[] digits = puzzleDigits[i % CORPUS_SIZE];
+
+                    validator.zoneMasks(digits, masks);
+                    validator.candidates(digits, masks, candidates);
+                    return candidates[0];
+                }
+            });
+        }
+
+        all.add(new Benchmark("Solver.canEasilySolve")
+        {
+            protected Object run(int i)
+            {
+                MaskedBoard mboard = corpus[i % CORPUS_SIZE];
+                boolean solved = Solver.canEasilySolve(mboard);
+
+                mboard.reset();
+                return solved;
+            }
+        });
+
+        all.add(new Benchmark("ExactCoverSolver.countSolutions")
+        {
+            final ExactCoverSolver solver = new ExactCoverSolver();
+
+            protected Object run(int i)
+            {
+                return solver.countSolutions(corpus[i % CORPUS_SIZE]);
+            }
+        });
+
+        final ParallelSearch search = new ParallelSearch();
+
+        all.add(new Benchmark("ParallelSearch.countSolutions")
+        {
+            protected Object run(int i)
+            {
+                return search.countSolutions(corpus[i % CORPUS_SIZE], ExactCoverSolver.DEFAULT_LIMIT);
+            }
+        });
+
+        // A puzzle with too few cells showing has many solutions, which makes
+        // a search tree big enough to be worth splitting.
+        final long[] sparse = CellMask.create();
+
+        for(int i = 0; i < Board.NUM_CELLS; i += 2)
+            CellMask.set(sparse, i);
+
+        all.add(new Benchmark("ParallelSearch.countSolutions.sparse")
+        {
+            protected Object run(int i)
+            {
+                return search.countSolutions(board, sparse, 10000);
+            }
+        });
+
+        all.add(new Benchmark("RandomBoard.parallel")
+        {
+            protected Object run(int i)
+            {
+                return new RandomBoard(new SplittableRandom(i), search);
+            }
+        });
+
+        all.add(new Benchmark("MaskedBoard.new")
+        {
+            protected Object run(int i)
+            {
+                return new MaskedBoard(board, new SplittableRandom(i), 1);
+            }
+        });
+
+        all.add(new Benchmark("MaskedBoard.dig")
+        {
+            protected Object run(int i)
+            {
+                return MaskedBoard.dig(board, new SplittableRandom(i));
+            }
+        });
+
+        // Each op solves the whole corpus, to compare with CORPUS_SIZE ops of
+        // Solver.canSolve.
+        all.add(new Benchmark("BatchSolver.canEasilySolve")
+        {
+            final BatchSolver solver = new BatchSolver();
+            final boolean[] solved = new boolean[CORPUS_SIZE];
+            final int[] passes = new int[CORPUS_SIZE];
+
+            protected Object run(int i)
+            {
+                solver.canEasilySolve(corpus, solved, passes);
+                return solved;
+            }
+        });
+
+        // What a cache hit costs, to weigh against Solver.canSolve.
+        all.add(new Benchmark("SolvabilityCache.get")
+        {
+            final SolvabilityCache cache = new SolvabilityCache(CORPUS_SIZE);
+            final long[][] masks = new long[CORPUS_SIZE][];
+
+            {
+                for(int i = 0; i < CORPUS_SIZE; ++i)
+                {
+                    corpus[i].getMask(masks[i] = CellMask.create());
+                    cache.put(masks[i], i);
+                }
+            }
+
+            protected Object run(int i)
+            {
+                return cache.get(masks[i % CORPUS_SIZE]);
+            }
+        });
+
+        all.add(new Benchmark("HtmlGenerator.generate")
+        {
+            protected Object run(int i)
+            {
+                MaskedBoard mboard = corpus[i % CORPUS_SIZE];
+
+                try
+                {
+                    HtmlGenerator.generate(mboard, nowhere, mboard.getNumVisible());
+                }
+                catch(IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            }
+        });
+
+        // What this allocates is what a compacted puzzle costs to keep.
+        all.add(new Benchmark("MaskedBoard.compact")
+        {
+            protected Object run(int i)
+            {
+                return corpus[i % CORPUS_SIZE].compact();
+            }
+        });
+
+        all.add(new Benchmark("MaskedBoard.transform")
+        {
+            protected Object run(int i)
+            {
+                return corpus[i % CORPUS_SIZE].transform(Symmetry.fromIndex(i));
+            }
+        });
+
+        all.add(new Benchmark("Canonicalizer.fingerprint")
+        {
+            final Canonicalizer canonicalizer = new Canonicalizer();
+            final long[] fingerprint = new long[2];
+
+            protected Object run(int i)
+            {
+                canonicalizer.fingerprint(corpus[i % CORPUS_SIZE], fingerprint);
+                return fingerprint[0];
+            }
+        });
+
+        // How the engine scales, from 9x9 to 36x36. The standard size is
+        // there too, to compare with the benchmarks above.
+        for(int n = 3; n <= 6; ++n)
+        {
+            final Geometry geometry = Geometry.of(n);
+            final MaskedBoard[] puzzles = new MaskedBoard[SIZED_CORPUS_SIZE];
+            final long[][] masks = new long[SIZED_CORPUS_SIZE][];
+
+            for(int i = 0; i < SIZED_CORPUS_SIZE; ++i)
+            {
+                puzzles[i] = new MaskedBoard(new RandomBoard(geometry, i), new SplittableRandom(i), 1);
+                puzzles[i].getMask(masks[i] = geometry.createMask());
+            }
+
+            all.add(new Benchmark("Sized.generate." + geometry)
+            {
+                protected Object run(int i)
+                {
+                    return new RandomBoard(geometry, i);
+                }
+            });
+
+            all.add(new Benchmark("Sized.solve." + geometry)
+            {
+                final Solver solver = new Solver(geometry);
+
+                protected Object run(int i)
+                {
+                    return solver.canSolve(puzzles[i % SIZED_CORPUS_SIZE].getSolution(),
+                                           masks[i % SIZED_CORPUS_SIZE]);
+                }
+            });
+
+            all.add(new Benchmark("Sized.mask." + geometry)
+            {
+                protected Object run(int i)
+                {
+                    RandomBoard board = (RandomBoard)puzzles[i % SIZED_CORPUS_SIZE].getSolution();
+
+                    return new MaskedBoard(board, new SplittableRandom(i), 1);
+                }
+            });
+
+            all.add(new Benchmark("Sized.dig." + geometry)
+            {
+                protected Object run(int i)
+                {
+                    return MaskedBoard.dig(puzzles[i % SIZED_CORPUS_SIZE].getSolution(),
+                                           new SplittableRandom(i));
+                }
+            });
+        }
+
+        all.add(new Benchmark("Solver.canSolve")
+        {
+            final Solver solver = new Solver();
+            final long[][] masks = new long[CORPUS_SIZE][];
+
+            {
+                for(int i = 0; i < CORPUS_SIZE; ++i)
+                    corpus[i].getMask(masks[i] = CellMask.create());
+            }
+
+            protected Object run(int i)
+            {
+                return solver.canSolve(corpus[i % CORPUS_SIZE].getSolution(), masks[i % CORPUS_SIZE]);
+            }
+        });
+
+        all.add(new Benchmark("CorpusReader.getPuzzle")
+        {
+            protected Object run(int i)
+            {
+                MaskedBoard mboard = reader.getPuzzle(i % CORPUS_SIZE);
+                int sum = 0;
+
+                // Read every cell, so the solution is decoded too.
+                for(int j = 0; j < Board.NUM_CELLS; ++j)
+                    sum += mboard.getCellValue(j);
+                return sum;
+            }
+        });
+
+        return all;
+    }
+
+    /**
+     * Creates the scalar validator, and the vector one too if it's available.
+     *
+     * @return the validators.
+     */
+    static List<Validator> validators()
+    {
+        List<Validator> validators = new ArrayList<Validator>();
+        Validator best = Validator.create();
+
+        validators.add(Validator.scalar());
+        if(!best.getName().equals("scalar"))
+            validators.add(best);
+
+        return validators;
+    }
+
+    private static boolean selected(Benchmark benchmark, String[] filters)
+    {
+        if(filters.length == 0)
+            return true;
+
+        for(String filter : filters)
+            if(benchmark.getName().contains(filter))
+                return true;
+
+        return false;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        final long warmup = Long.getLong("bench.warmup", 2000);
+        final long time = Long.getLong("bench.time", 5000);
+        final String resultsFile = System.getProperty("bench.results");
+        List<Benchmark.Result> results = new ArrayList<Benchmark.Result>();
+
+        for(Benchmark benchmark : all())
+            if(selected(benchmark, args))
+            {
+                Benchmark.Result result = benchmark.measure(warmup, time);
+
+                System.out.println(result);
+                results.add(result);
+            }
+
+        if(resultsFile != null)
+        {
+            PrintStream csv = new PrintStream(resultsFile);
+
+            try
+            {
+                csv.println("benchmark,ops_per_sec,bytes_per_op,mb_per_sec,gc_ms");
+                for(Benchmark.Result r : results)
+                    csv.printf("%s,%.3f,%.1f,%.3f,%.1f%n", r.name, r.opsPerSecond(),
+                               r.bytesPerOp, r.megabytesPerSecond(), r.gcMillis);
+            }
+            finally
+            {
+                csv.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package hexadoku;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates many puzzles in one process. Boards are populated, masked, and
+ * written out by three stages of workers that hand puzzles to each other
+ * through bounded queues, so every core can be kept busy.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class BatchGenerator
+{
+    // A puzzle as it moves through the pipeline.
+    private static class Job
+    {
+        final long id;
+        final SplittableRandom rand;
+        // When the job was started, for the latency metric.
+        final long start = System.nanoTime();
+        RandomBoard board;
+        MaskedBoard mboard;
+
+        Job(long id)
+        {
+            this.id = id;
+            this.rand = new SplittableRandom(id);
+        }
+    }
+
+    private final int numPuzzles;
+    private final long firstId;
+    private final int numPopulators, numMaskers;
+    private final BlockingQueue<Job> populated, masked;
+    // The number of puzzles to put in each document, or 0 for one per file.
+    private int puzzlesPerFile;
+    // The corpus to append the puzzles to instead, if any.
+    private File corpus;
+    // Whether masks are dug out of the boards instead of searched for.
+    private boolean dig;
+    // The number of puzzles each stage has claimed so far.
+    private final AtomicInteger populateClaims = new AtomicInteger();
+    private final AtomicInteger maskClaims = new AtomicInteger();
+
+    private static final Metrics.Histogram PUZZLE_NANOS = Metrics.histogram("puzzle.nanos");
+
+    /**
+     * Creates a batch of puzzles. The puzzles are numbered with consecutive
+     * IDs, and each is the same as the one MaskedBoard.fromId gives for its
+     * ID.
+     *
+     * @param numPuzzles the number of puzzles to generate.
+     * @param firstId the ID of the first puzzle.
+     * @param numPopulators the number of workers that populate boards.
+     * @param numMaskers the number of workers that mask boards.
+     */
+    public BatchGenerator(int numPuzzles, long firstId, int numPopulators, int numMaskers)
+    {
+        if(numPuzzles < 0 || numPopulators < 1 || numMaskers < 1)
+            throw new IllegalArgumentException("invalid batch configuration");
+
+        this.numPuzzles = numPuzzles;
+        this.firstId = firstId;
+        this.numPopulators = numPopulators;
+        this.numMaskers = numMaskers;
+        this.populated = new ArrayBlockingQueue<Job>(2 * numMaskers);
+        this.masked = new ArrayBlockingQueue<Job>(2 * numMaskers);
+    }
+
+    /**
+     * Creates a batch of puzzles that uses the given number of threads.
+     * Masking is much slower than populating, so most of the threads mask.
+     *
+     * @param numPuzzles the number of puzzles to generate.
+     * @param firstId the ID of the first puzzle.
+     * @param numThreads the total number of workers to use.
+     */
+    public BatchGenerator(int numPuzzles, long firstId, int numThreads)
+    {
+        this(numPuzzles, firstId, Math.max(1, numThreads / 4),
+             Math.max(1, numThreads - numThreads / 4));
+    }
+
+    /**
+     * Sets how the puzzles are written. By default each puzzle and its answer
+     * key get their own files, "G<id>.html" and "K<id>.html". Otherwise they
+     * are collected into documents named after the first ID; see PuzzleBook.
+     *
+     * @param puzzlesPerFile the number of puzzles per document, or 0 for one
+     * puzzle per file.
+     */
+    public void setPuzzlesPerFile(int puzzlesPerFile)
+    {
+        this.puzzlesPerFile = puzzlesPerFile;
+    }
+
+    /**
+     * Sets a corpus file to append the puzzles to instead of writing HTML.
+     *
+     * @param corpus the corpus file, or null to write HTML.
+     */
+    public void setCorpus(File corpus)
+    {
+        this.corpus = corpus;
+    }
+
+    /**
+     * Sets how the puzzles are masked. By default a mask is searched for, as
+     * MaskedBoard's constructor does; otherwise it is dug out of the board,
+     * as MaskedBoard.dig() does, which is faster and shows fewer cells. The
+     * same ID gives a different puzzle each way.
+     *
+     * @param dig true to dig masks out.
+     */
+    public void setDig(boolean dig)
+    {
+        this.dig = dig;
+    }
+
+    // Populates boards for the maskers.
+    private final Callable<Void> populator = new Callable<Void>()
+    {
+        public Void call() throws InterruptedException
+        {
+            int n;
+            Job job;
+
+            while((n = populateClaims.getAndIncrement()) < numPuzzles)
+            {
+                job = new Job(firstId + n);
+                job.board = new RandomBoard(job.rand.split());
+                populated.put(job);
+            }
+
+            return null;
+        }
+    };
+
+    // Masks populated boards for the writer.
+    private final Callable<Void> masker = new Callable<Void>()
+    {
+        public Void call() throws InterruptedException
+        {
+            Job job;
+
+            while(maskClaims.getAndIncrement() < numPuzzles)
+            {
+                job = populated.take();
+                // The maskers already keep the cores busy, so each searches alone.
+                job.mboard = dig ? MaskedBoard.dig(job.board, job.rand.split()) :
+                             new MaskedBoard(job.board, job.rand.split(), 1);
+                masked.put(job);
+            }
+
+            return null;
+        }
+    };
+
+    /**
+     * Writes a puzzle and its answer key as "G<id>.html" and "K<id>.html".
+     *
+     * @param job the puzzle to write.
+     */
+    private static void write(Job job) throws Exception
+    {
+        PrintStream stream;
+
+        stream = new PrintStream("G" + job.id + ".html");
+        try
+        {
+            HtmlGenerator.generate(job.mboard, stream, job.mboard.getNumVisible());
+        }
+        finally
+        {
+            stream.close();
+        }
+
+        stream = new PrintStream("K" + job.id + ".html");
+        try
+        {
+            HtmlGenerator.generate(job.board, stream, Board.NUM_CELLS);
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * Generates the batch, writing each puzzle as it is finished.
+     *
+     * @return the number of puzzles generated per second.
+     * @throws Exception if any of the workers failed.
+     */
+    public double run() throws Exception
+    {
+        final ExecutorService executor =
+                Executors.newFixedThreadPool(numPopulators + numMaskers);
+        final CompletionService<Void> workers =
+                new ExecutorCompletionService<Void>(executor);
+        final long start = System.nanoTime();
+        final CorpusWriter writer = corpus != null ? new CorpusWriter(corpus) : null;
+        final PuzzleBook book = writer == null && puzzlesPerFile > 0 ?
+                new PuzzleBook("B" + firstId, puzzlesPerFile) : null;
+        double seconds;
+
+        try
+        {
+            for(int i = 0; i < numPopulators; ++i)
+                workers.submit(populator);
+            for(int i = 0; i < numMaskers; ++i)
+                workers.submit(masker);
+
+            // Write the puzzles on this thread, checking now and then that
+            // none of the workers have died.
+            for(int i = 0; i < numPuzzles; ++i)
+            {
+                Job job;
+                Future<Void> done;
+
+                while((job = masked.poll(100, TimeUnit.MILLISECONDS)) == null)
+                    if((done = workers.poll()) != null)
+                        done.get();
+                if(writer != null)
+                    writer.append(job.id, job.mboard);
+                else if(book != null)
+                    book.add(job.mboard, "Puzzle " + job.id);
+                else
+                    write(job);
+                PUZZLE_NANOS.record(System.nanoTime() - job.start);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+            if(writer != null)
+                writer.close();
+            if(book != null)
+                book.close();
+        }
+
+        seconds = (System.nanoTime() - start) / 1e9;
+        return numPuzzles / seconds;
+    }
+}
@@ -0,0 +1,227 @@
+package hexadoku;
+
+import java.util.Arrays;
+
+/**
+ * Determines whether many boards can be easily solved at once. Up to LANES
+ * puzzles are loaded into lanes, and their candidates are kept bit-sliced:
+ * one long per cell and digit, whose bit n says whether the digit is still a
+ * candidate of the cell in puzzle n. Naked singles are then found and
+ * propagated for every puzzle together, with only bitwise operations, so the
+ * work per puzzle is a fraction of what Solver does one puzzle at a time.
+ *
+ * Each pass sweeps the cells in order, removing from each the digits its
+ * zones have fixed and, where it has become a single, fixing its digit in
+ * its zones for the cells after it. The sweep has no branches per lane, so
+ * every lane costs the same whether its puzzle is nearly done or not; passes
+ * go on until one changes nothing in any lane. A puzzle's pass count is the
+ * number of passes that changed something in its lane, which is how deep its
+ * chain of deductions goes; it isn't comparable with Solver's zone passes.
+ *
+ * Only standard boards can be loaded. Instances hold about 70 KB of scratch
+ * space, and are not thread-safe.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class BatchSolver
+{
+    // The number of puzzles solved at once, one per bit of a long.
+    public static final int LANES = 64;
+
+    private static final int N = Board.NUM_DIGITS;
+    // The zone tables of the standard board, the only one solved here.
+    private static final Geometry STANDARD = Geometry.STANDARD;
+
+    // The candidates of each cell and digit, by lane: index cell * N + digit.
+    private final long[] candidates = new long[Board.NUM_CELLS * N];
+    // The lanes in which each cell has a single candidate, as far as the
+    // passes so far have found.
+    private final long[] singles = new long[Board.NUM_CELLS];
+    // The lanes in which each zone has each digit fixed: zone * N + digit.
+    private final long[] fixed = new long[Board.NUM_ZONES * N];
+    // The lanes in which each cell is visible, and in which each cell's
+    // solution is each digit, as loaded; candidates are built from them.
+    private final long[] visibleLanes = new long[Board.NUM_CELLS];
+    private final long[] digitLanes = new long[Board.NUM_CELLS * N];
+    // The lanes that hold a puzzle.
+    private long loaded;
+
+    private static final Metrics.Counter CALLS = Metrics.counter("batch.calls");
+    private static final Metrics.Counter PUZZLES = Metrics.counter("batch.puzzles");
+    private static final Metrics.Histogram PASSES = Metrics.histogram("batch.passes");
+
+    /**
+     * Creates a solver with every lane empty.
+     */
+    public BatchSolver()
+    {
+        clear();
+    }
+
+    /**
+     * Empties every lane.
+     */
+    public void clear()
+    {
+        Arrays.fill(visibleLanes, 0);
+        Arrays.fill(digitLanes, 0);
+        loaded = 0;
+    }
+
+    /**
+     * Loads a puzzle into an empty lane.
+     *
+     * @param lane the lane, from 0 to LANES - 1.
+     * @param solution a fully populated board.
+     * @param visible a cell mask of which cells of the board are visible.
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    public void load(int lane, Board solution, long[] visible)
+    {
+        final long bit = 1L << lane;
+
+        Geometry.STANDARD.check(solution);
+        for(int i = 0; i < Board.NUM_CELLS; ++i)
+            if(CellMask.isSet(visible, i))
+            {
+                visibleLanes[i] |= bit;
+                digitLanes[i * N + Board.digitCharToInt(solution.getCellValue(i))] |= bit;
+            }
+
+        loaded |= bit;
+    }
+
+    /**
+     * Loads a masked board into an empty lane, as it shows now.
+     *
+     * @param lane the lane, from 0 to LANES - 1.
+     * @param mboard the board.
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    public void load(int lane, MaskedBoard mboard)
+    {
+        final long[] visible = CellMask.create();
+
+        Geometry.STANDARD.check(mboard);
+        mboard.getMask(visible);
+        load(lane, mboard.getSolution(), visible);
+    }
+
+    /**
+     * Makes one pass over the cells. Each cell loses the digits its zones
+     * have fixed, unless it is a single itself; then, if it has become a
+     * single, it fixes its digit in its zones. Fixed digits stay fixed, so
+     * the cells after it see them in this same pass.
+     *
+     * @return the lanes in which any candidate was removed.
+     */
+    private long pass()
+    {
+        long changed = 0, c, keep, single, ones, twos, bits;
+        int row, col, sqr;
+
+        for(int i = 0, base = 0; i < Board.NUM_CELLS; ++i, base += N)
+        {
+            row = STANDARD.cellZone(i, 0) * N;
+            col = STANDARD.cellZone(i, 1) * N;
+            sqr = STANDARD.cellZone(i, 2) * N;
+            single = singles[i];
+            ones = twos = 0;
+
+            for(int d = 0; d < N; ++d)
+            {
+                c = candidates[base + d];
+                keep = ~(fixed[row + d] | fixed[col + d] | fixed[sqr + d]) | single;
+                changed |= c & ~keep;
+                c &= keep;
+                candidates[base + d] = c;
+                twos |= ones & c;
+                ones |= c;
+            }
+
+            // Only the lanes in which the cell has just become a single have
+            // anything new to fix.
+            if((single = ones & ~twos & ~singles[i]) != 0)
+            {
+                singles[i] |= single;
+                for(int d = 0; d < N; ++d)
+                    if((bits = candidates[base + d] & single) != 0)
+                    {
+                        fixed[row + d] |= bits;
+                        fixed[col + d] |= bits;
+                        fixed[sqr + d] |= bits;
+                    }
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Propagates naked singles in every loaded lane until nothing changes.
+     *
+     * @param passes receives, for each lane, the number of passes that
+     * deduced something in it; it must have LANES entries.
+     * @return the lanes whose puzzles were solved.
+     */
+    public long solve(int[] passes)
+    {
+        long changed, solved, lanes;
+
+        // A visible cell has only its digit; a hidden one could be anything.
+        for(int i = 0, base = 0; i < Board.NUM_CELLS; ++i, base += N)
+            for(int d = 0; d < N; ++d)
+                candidates[base + d] = ~visibleLanes[i] | digitLanes[base + d];
+        Arrays.fill(singles, 0);
+        Arrays.fill(fixed, 0);
+
+        // The first pass fixes the visible cells' digits, which deduces
+        // nothing in itself, so it isn't counted.
+        Arrays.fill(passes, 0, LANES, 0);
+        pass();
+        while((changed = pass() & loaded) != 0)
+            for(lanes = changed; lanes != 0; lanes &= lanes - 1)
+                passes[Long.numberOfTrailingZeros(lanes)]++;
+
+        solved = loaded;
+        for(int i = 0; i < Board.NUM_CELLS; ++i)
+            solved &= singles[i];
+
+        CALLS.increment();
+        PUZZLES.add(Long.bitCount(loaded));
+        for(lanes = loaded; lanes != 0; lanes &= lanes - 1)
+            PASSES.record(passes[Long.numberOfTrailingZeros(lanes)]);
+        return solved;
+    }
+
+    /**
+     * Determines whether each of a number of boards can be easily solved as
+     * it shows now, LANES at a time. The boards are not changed.
+     *
+     * @param mboards the boards.
+     * @param solved receives whether each board can be easily solved.
+     * @param passes receives the pass count of each board; see solve().
+     * @throws IllegalArgumentException if a board isn't a standard one.
+     */
+    public void canEasilySolve(MaskedBoard[] mboards, boolean[] solved, int[] passes)
+    {
+        final int[] lanePasses = new int[LANES];
+        long result;
+        int count;
+
+        for(int first = 0; first < mboards.length; first += LANES)
+        {
+            count = Math.min(LANES, mboards.length - first);
+            clear();
+            for(int lane = 0; lane < count; ++lane)
+                load(lane, mboards[first + lane]);
+
+            result = solve(lanePasses);
+            for(int lane = 0; lane < count; ++lane)
+            {
+                solved[first + lane] = (result & (1L << lane)) != 0;
+                passes[first + lane] = lanePasses[lane];
+            }
+        }
+    }
+}
@@ -62,6 +62,16 @@ public abstract class Board
         }
     };
 
+    // The number of zones: every row, then every column, then every square.
+    public static final int NUM_ZONES = 3 * NUM_DIGITS;
+    // The first zone of each kind.
+    public static final int ROW_ZONES = 0;
+    public static final int COLUMN_ZONES = NUM_DIGITS;
+    public static final int SQUARE_ZONES = 2 * NUM_DIGITS;
+    // The number of zones each cell belongs to. The cells of each zone, and
+    // the zones of each cell, are Geometry.STANDARD's.
+    public static final int ZONES_PER_CELL = 3;
+
     /**
      * Converts a digit from a character to an integer.
      *
@@ -94,6 +104,29 @@ public abstract class Board
         return '\0';
     }
 
+    /**
+     * Gets the shape of the board. The NUM_ constants of this class describe
+     * the standard geometry, which every board has unless it says otherwise.
+     *
+     * @return the geometry.
+     */
+    public Geometry getGeometry()
+    {
+        return Geometry.STANDARD;
+    }
+
+    /**
+     * Transforms the board with a symmetry. This works only on fully
+     * populated boards; MaskedBoard transforms its mask too.
+     *
+     * @param symmetry the symmetry to apply.
+     * @return the transformed board.
+     */
+    public Board transform(Symmetry symmetry)
+    {
+        return symmetry.apply(this);
+    }
+
     public abstract char getCellValue(int index);
     public abstract boolean isValid();
 }
@@ -0,0 +1,185 @@
+package hexadoku;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the digits used by each row, column, and square of a board
+ * as masks, so that the candidates for a cell can be found with a few
+ * bitwise operations instead of by scanning its zones. A grid has the zone
+ * tables of one geometry; digits are kept in long masks, so every geometry
+ * fits.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class CandidateGrid
+{
+    // A mask with a bit set for each possible digit of the standard geometry.
+    public static final int ALL_DIGITS = (1 << Board.NUM_DIGITS) - 1;
+
+    private final Geometry geometry;
+    // The masks of digits used in each zone.
+    private final long[] zoneUsed;
+    // The digit in each cell, or -1 if the cell is empty.
+    private final int[] cells;
+    // The digits ruled out of each cell by something other than its zones.
+    private final long[] eliminated;
+    // The number of cells that have a digit.
+    private int numFilled;
+
+    /**
+     * Creates an empty grid of the standard geometry.
+     */
+    public CandidateGrid()
+    {
+        this(Geometry.STANDARD);
+    }
+
+    /**
+     * Creates an empty grid of a given geometry.
+     *
+     * @param geometry the shape of the boards to hold.
+     */
+    public CandidateGrid(Geometry geometry)
+    {
+        this.geometry = geometry;
+        this.zoneUsed = new long[geometry.getNumZones()];
+        this.cells = new int[geometry.getNumCells()];
+        this.eliminated = new long[geometry.getNumCells()];
+        clear();
+    }
+
+    /**
+     * Creates a grid holding the visible cells of a board.
+     *
+     * @param board the board to copy.
+     */
+    public CandidateGrid(Board board)
+    {
+        this(board.getGeometry());
+        load(board);
+    }
+
+    /**
+     * Empties every cell of the grid.
+     */
+    public void clear()
+    {
+        Arrays.fill(zoneUsed, 0);
+        Arrays.fill(cells, -1);
+        Arrays.fill(eliminated, 0);
+        numFilled = 0;
+    }
+
+    /**
+     * Replaces the contents of the grid with the visible cells of a board.
+     *
+     * @param board the board to copy.
+     * @throws IllegalArgumentException if the board has another geometry.
+     */
+    public void load(Board board)
+    {
+        int digit;
+
+        geometry.check(board);
+        clear();
+
+        for(int i = 0; i < cells.length; ++i)
+            if((digit = geometry.digitOf(board.getCellValue(i))) != -1)
+                place(i, digit);
+    }
+
+    public Geometry getGeometry()
+    {
+        return geometry;
+    }
+
+    /**
+     * Gets the digits that could still go in a cell.
+     *
+     * @param index the index of the cell.
+     * @return a mask with a bit set for each digit not yet used by the cell's
+     * row, column, or square, and not eliminated from the cell.
+     */
+    public long candidates(int index)
+    {
+        return ~(zoneUsed[geometry.cellZone(index, 0)] |
+                 zoneUsed[geometry.cellZone(index, 1)] |
+                 zoneUsed[geometry.cellZone(index, 2)] |
+                 eliminated[index]) & geometry.getAllDigits();
+    }
+
+    /**
+     * Rules digits out of a cell. Filled cells are left alone.
+     *
+     * @param index the index of the cell.
+     * @param digits a mask of the digits to rule out.
+     * @return true if any of them were still candidates of an empty cell.
+     */
+    public boolean eliminate(int index, long digits)
+    {
+        if(isFilled(index) || (candidates(index) & digits) == 0)
+            return false;
+
+        eliminated[index] |= digits;
+        return true;
+    }
+
+    /**
+     * Gets the digits a zone has yet to place.
+     *
+     * @param zone the zone.
+     * @return a mask with a bit set for each digit missing from the zone.
+     */
+    public long missing(int zone)
+    {
+        return ~zoneUsed[zone] & geometry.getAllDigits();
+    }
+
+    /**
+     * Puts a digit into an empty cell.
+     *
+     * @param index the index of the cell.
+     * @param digit the digit to put in the cell.
+     */
+    public void place(int index, int digit)
+    {
+        final long bit = 1L << digit;
+
+        zoneUsed[geometry.cellZone(index, 0)] |= bit;
+        zoneUsed[geometry.cellZone(index, 1)] |= bit;
+        zoneUsed[geometry.cellZone(index, 2)] |= bit;
+        cells[index] = digit;
+        numFilled++;
+    }
+
+    /**
+     * Gets the digit in a cell.
+     *
+     * @param index the index of the cell.
+     * @return the digit, or -1 if the cell is empty.
+     */
+    public int getDigit(int index)
+    {
+        return cells[index];
+    }
+
+    public boolean isFilled(int index)
+    {
+        return cells[index] != -1;
+    }
+
+    public int getNumFilled()
+    {
+        return numFilled;
+    }
+
+    /**
+     * Tests whether every cell of the grid has a digit.
+     *
+     * @return true if the grid is full.
+     */
+    public boolean isFull()
+    {
+        return numFilled == cells.length;
+    }
+}
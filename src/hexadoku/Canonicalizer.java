@@ -0,0 +1,450 @@
+package hexadoku;
+
+/**
+ * Finds canonical forms of boards, so that boards which are the same up to
+ * symmetry, that is up to any Symmetry, can be recognized. A board's form is
+ * one of the boards a symmetry can make of it, with 0 for an empty cell and
+ * digits labelled 1 to 16: the smallest, in row-major lexicographic order, of
+ * a set of candidates that is the same whichever of those boards it starts
+ * from.
+ *
+ * A filled board's form is found exactly, rows within bands and columns
+ * within stacks included, by trying every anchor: a square and an order of
+ * its rows and columns, as is and transposed. The anchor goes first, and its
+ * cells are labelled 1 to 16 in order. The first row then holds every digit
+ * once, so the other columns can only go in one order: each stack by the
+ * smallest label it has in that row, and its columns by their labels. The
+ * first column orders the other rows the same way. That leaves 2 * 16 * 24 *
+ * 24 candidates rather than the 2 * 24^10 symmetries. A MaskedBoard's form is
+ * found from its solution's anchors, and ties between them are broken by the
+ * mask, so two puzzles share a form if and only if a Symmetry takes one to
+ * the other.
+ *
+ * Any other partly filled board has no solution to anchor it, so its form
+ * only reorders bands and stacks, transposes, and labels digits in the order
+ * they first appear. Boards transformed by a Symmetry that moved lines within
+ * bands or stacks won't share such a form.
+ *
+ * Instances keep scratch space between calls, so they are not thread-safe;
+ * use one per thread.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class Canonicalizer
+{
+    private static final int N = Board.NUM_DIGITS, n = Board.NUM_SQRS;
+
+    // Every ordering of the bands, or of the stacks, or of the lines of one,
+    // and where each one puts each thing.
+    private static final int[][] ORDERS = orders(n);
+    private static final int[][] INVERSES = inverses(ORDERS);
+
+    // The board's digits, or -1 for empty cells, as is and transposed. For a
+    // MaskedBoard, these are its solution's, and which cells are visible.
+    private final int[][] sources = new int[2][Board.NUM_CELLS];
+    private final boolean[][] visibles = new boolean[2][Board.NUM_CELLS];
+    // The label of each digit, or 0 if it hasn't appeared yet.
+    private final int[] labels = new int[N];
+    // The rows or columns of the board in each candidate's order.
+    private final int[] rowOrder = new int[N];
+    private final int[] colOrder = new int[N];
+    // The row and column of each digit in the anchor's square, and the digits
+    // of the anchor's first row outside it.
+    private final int[] anchorRows = new int[N];
+    private final int[] anchorCols = new int[N];
+    private final int[] rowDigits = new int[N - n];
+    // What lines are sorted by, and the smallest key of each band or stack.
+    private final int[] keys = new int[N];
+    private final int[] bandKeys = new int[n];
+    // The candidate being built, and the smallest found so far. A MaskedBoard's
+    // candidates are its solution's cells followed by its own.
+    private byte[] candidate = new byte[2 * Board.NUM_CELLS];
+    private byte[] best = new byte[2 * Board.NUM_CELLS];
+    // The form being fingerprinted.
+    private final byte[] form = new byte[Board.NUM_CELLS];
+
+    /**
+     * Creates every ordering of n things, in lexicographic order.
+     */
+    private static int[][] orders(int n)
+    {
+        int count = 1, i, j, k, t;
+        int[][] orders;
+        int[] p = new int[n];
+
+        for(i = 2; i <= n; ++i)
+            count *= i;
+        orders = new int[count][];
+
+        for(i = 0; i < n; ++i)
+            p[i] = i;
+        for(k = 0; k < count; ++k)
+        {
+            orders[k] = p.clone();
+
+            // Step to the next permutation.
+            i = n - 2;
+            while(i >= 0 && p[i] > p[i + 1])
+                --i;
+            if(i < 0)
+                break;
+            j = n - 1;
+            while(p[j] < p[i])
+                --j;
+            t = p[i]; p[i] = p[j]; p[j] = t;
+            for(i = i + 1, j = n - 1; i < j; ++i, --j)
+            {
+                t = p[i]; p[i] = p[j]; p[j] = t;
+            }
+        }
+
+        return orders;
+    }
+
+    private static int[][] inverses(int[][] orders)
+    {
+        int[][] inverses = new int[orders.length][orders[0].length];
+
+        for(int k = 0; k < orders.length; ++k)
+            for(int i = 0; i < orders[k].length; ++i)
+                inverses[k][orders[k][i]] = i;
+
+        return inverses;
+    }
+
+    /**
+     * Builds one candidate, comparing it to the best as it goes.
+     *
+     * @param source the board's digits, as is or transposed.
+     * @param visible which cells are visible, or null to build only the
+     * source's cells.
+     * @param relabel whether to label digits in the order they appear, rather
+     * than keeping the labels already set.
+     * @param first whether this is the first candidate, so there is no best.
+     * @return true if the candidate is smaller than the best.
+     */
+    private boolean build(int[] source, boolean[] visible, boolean relabel, boolean first)
+    {
+        // Negative while the candidate is smaller, zero while they are equal.
+        int order = first ? -1 : 0, next = 1, digit, cell, code, i = 0;
+
+        if(relabel)
+            for(int d = 0; d < N; ++d)
+                labels[d] = 0;
+
+        for(int r = 0; r < N; ++r)
+            for(int c = 0; c < N; ++c, ++i)
+            {
+                digit = source[rowOrder[r] * N + colOrder[c]];
+                if(digit == -1)
+                    code = 0;
+                else
+                {
+                    if(labels[digit] == 0)
+                        labels[digit] = next++;
+                    code = labels[digit];
+                }
+
+                if(order == 0 && (order = code - best[i]) > 0)
+                    return false;
+                candidate[i] = (byte)code;
+            }
+
+        if(visible != null)
+            for(int r = 0; r < N; ++r)
+                for(int c = 0; c < N; ++c, ++i)
+                {
+                    cell = rowOrder[r] * N + colOrder[c];
+                    code = visible[cell] ? labels[source[cell]] : 0;
+
+                    if(order == 0 && (order = code - best[i]) > 0)
+                        return false;
+                    candidate[i] = (byte)code;
+                }
+
+        return order < 0;
+    }
+
+    /**
+     * Puts the lines outside an anchor's band (or stack) in order after the
+     * anchor's: the bands by the smallest key of their lines, and the lines
+     * of each band by key. The keys must all be different.
+     *
+     * @param anchor the anchor's band.
+     * @param order holds the anchor's lines first, and receives the rest.
+     */
+    private void orderLines(int anchor, int[] order)
+    {
+        int band, line, key, j, k = n;
+
+        for(band = 0; band < n; ++band)
+        {
+            bandKeys[band] = Integer.MAX_VALUE;
+            for(line = band * n; line < band * n + n; ++line)
+                bandKeys[band] = Math.min(bandKeys[band], keys[line]);
+        }
+
+        for(line = 0; line < N; ++line)
+            keys[line] += bandKeys[line / n] * (N + 1);
+
+        for(line = 0; line < N; ++line)
+        {
+            if(line / n == anchor)
+                continue;
+
+            key = keys[line];
+            for(j = k++; j > n && keys[order[j - 1]] > key; --j)
+                order[j] = order[j - 1];
+            order[j] = line;
+        }
+    }
+
+    /**
+     * Works out the first row of an anchor's candidate past the anchor, which
+     * is all that most anchors need before they lose. Each of the other
+     * stacks has four labels in that row, from 5 to 16, which go in order of
+     * size; the stacks go in order of their smallest. That is the same order
+     * as the numbers made by packing each stack's labels four bits apiece.
+     *
+     * @param rowPlaces the place of each row of the anchor in its order.
+     * @param colPlaces the place of each column of the anchor in its order.
+     * @return the row past the anchor, packed four bits to a cell.
+     */
+    private long firstRowTail(int[] rowPlaces, int[] colPlaces)
+    {
+        int x = stackLabels(0, rowPlaces, colPlaces), y = stackLabels(1, rowPlaces, colPlaces);
+        int z = stackLabels(2, rowPlaces, colPlaces), t;
+
+        if(x > y) { t = x; x = y; y = t; }
+        if(y > z) { t = y; y = z; z = t; }
+        if(x > y) { t = x; x = y; y = t; }
+
+        return (long)x << 32 | (long)y << 16 | z;
+    }
+
+    /**
+     * Packs the labels, less one, of the first row's cells in one of the
+     * other stacks, in order of size.
+     */
+    private int stackLabels(int k, int[] rowPlaces, int[] colPlaces)
+    {
+        int a, b, c, d, t, digit;
+
+        digit = rowDigits[k * n];
+        a = rowPlaces[anchorRows[digit]] * n + colPlaces[anchorCols[digit]];
+        digit = rowDigits[k * n + 1];
+        b = rowPlaces[anchorRows[digit]] * n + colPlaces[anchorCols[digit]];
+        digit = rowDigits[k * n + 2];
+        c = rowPlaces[anchorRows[digit]] * n + colPlaces[anchorCols[digit]];
+        digit = rowDigits[k * n + 3];
+        d = rowPlaces[anchorRows[digit]] * n + colPlaces[anchorCols[digit]];
+
+        if(a > b) { t = a; a = b; b = t; }
+        if(c > d) { t = c; c = d; d = t; }
+        if(a > c) { t = a; a = c; c = t; }
+        if(b > d) { t = b; b = d; d = t; }
+        if(b > c) { t = b; b = c; c = t; }
+
+        return a << 12 | b << 8 | c << 4 | d;
+    }
+
+    /**
+     * Finds the smallest candidate of a filled board over every anchor.
+     *
+     * @param visible whether to build the visible cells too, for a
+     * MaskedBoard.
+     */
+    private void searchAnchors(boolean visible)
+    {
+        boolean first = true;
+        long tail, bestTail = 0;
+        int row, k;
+        byte[] t;
+
+        for(int s = 0; s < 2; ++s)
+        {
+            final int[] source = sources[s];
+
+            for(int band = 0; band < n; ++band)
+                for(int stack = 0; stack < n; ++stack)
+                {
+                    for(int i = 0; i < n; ++i)
+                        for(int j = 0; j < n; ++j)
+                        {
+                            anchorRows[source[(band * n + i) * N + stack * n + j]] = i;
+                            anchorCols[source[(band * n + i) * N + stack * n + j]] = j;
+                        }
+
+                    for(int r = 0; r < ORDERS.length; ++r)
+                    {
+                        final int[] rows = ORDERS[r];
+
+                        // The digits of the first row outside the anchor,
+                        // a stack at a time.
+                        row = band * n + rows[0];
+                        k = 0;
+                        for(int c = 0; c < N; ++c)
+                            if(c / n != stack)
+                                rowDigits[k++] = source[row * N + c];
+
+                        for(int c = 0; c < ORDERS.length; ++c)
+                        {
+                            final int[] cols = ORDERS[c];
+
+                            // Most anchors lose in the first row, which
+                            // needs none of the other lines in order.
+                            tail = firstRowTail(INVERSES[r], INVERSES[c]);
+                            if(!first && tail > bestTail)
+                                continue;
+
+                            for(int i = 0; i < n; ++i)
+                            {
+                                rowOrder[i] = band * n + rows[i];
+                                colOrder[i] = stack * n + cols[i];
+                            }
+                            for(int i = 0; i < n; ++i)
+                                for(int j = 0; j < n; ++j)
+                                    labels[source[rowOrder[i] * N + colOrder[j]]] = i * n + j + 1;
+
+                            for(int line = 0; line < N; ++line)
+                                keys[line] = labels[source[rowOrder[0] * N + line]];
+                            orderLines(stack, colOrder);
+                            for(int line = 0; line < N; ++line)
+                                keys[line] = labels[source[line * N + colOrder[0]]];
+                            orderLines(band, rowOrder);
+
+                            if(build(source, visible ? visibles[s] : null, false, first))
+                            {
+                                t = best;
+                                best = candidate;
+                                candidate = t;
+                                bestTail = tail;
+                            }
+                            first = false;
+                        }
+                    }
+                }
+        }
+    }
+
+    /**
+     * Finds the smallest candidate of a partly filled board over the orders
+     * of its bands and stacks.
+     */
+    private void searchBands()
+    {
+        boolean first = true;
+        byte[] t;
+
+        for(int[] source : sources)
+            for(int[] bands : ORDERS)
+            {
+                for(int r = 0; r < N; ++r)
+                    rowOrder[r] = bands[r / n] * n + r % n;
+
+                for(int[] stacks : ORDERS)
+                {
+                    for(int c = 0; c < N; ++c)
+                        colOrder[c] = stacks[c / n] * n + c % n;
+
+                    if(build(source, null, true, first))
+                    {
+                        t = best;
+                        best = candidate;
+                        candidate = t;
+                    }
+                    first = false;
+                }
+            }
+    }
+
+    /**
+     * Finds the canonical form of a board.
+     *
+     * @param board the board, which may be partially filled.
+     * @param form receives the form, NUM_CELLS bytes: 0 for an empty cell, or
+     * a digit's label from 1 to NUM_DIGITS.
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    public void canonicalize(Board board, byte[] form)
+    {
+        final boolean masked = board instanceof MaskedBoard;
+        final Board source = masked ? ((MaskedBoard)board).getSolution() : board;
+        boolean filled = true;
+        int digit, transposed;
+
+        Geometry.STANDARD.check(board);
+
+        for(int i = 0; i < Board.NUM_CELLS; ++i)
+        {
+            digit = Board.digitCharToInt(source.getCellValue(i));
+            transposed = (i % N) * N + i / N;
+            sources[0][i] = sources[1][transposed] = digit;
+            visibles[0][i] = visibles[1][transposed] = !masked || board.getCellValue(i) != '\0';
+            filled &= digit != -1;
+        }
+
+        if(!filled)
+            searchBands();
+        else
+            searchAnchors(masked);
+
+        System.arraycopy(best, masked && filled ? Board.NUM_CELLS : 0, form, 0, Board.NUM_CELLS);
+    }
+
+    /**
+     * Finds the 128-bit fingerprint of a board: a hash of its canonical form.
+     * Boards with the same form have the same fingerprint, and boards with
+     * different forms are vanishingly unlikely to.
+     *
+     * @param board the board, which may be partially filled.
+     * @param fingerprint receives the fingerprint, as two longs.
+     */
+    public void fingerprint(Board board, long[] fingerprint)
+    {
+        canonicalize(board, form);
+        hash(form, fingerprint);
+    }
+
+    /**
+     * Finds the fingerprints of a puzzle and of its solution together, which
+     * takes no longer than finding the puzzle's alone.
+     *
+     * @param mboard the puzzle.
+     * @param solutionFingerprint receives the solution's fingerprint.
+     * @param fingerprint receives the puzzle's fingerprint.
+     */
+    public void fingerprint(MaskedBoard mboard, long[] solutionFingerprint, long[] fingerprint)
+    {
+        canonicalize(mboard, form);
+        hash(form, fingerprint);
+        // The solution's cells come first in a puzzle's candidates, so the
+        // smallest puzzle candidate holds the smallest solution too.
+        hash(best, solutionFingerprint);
+    }
+
+    private static void hash(byte[] form, long[] fingerprint)
+    {
+        long a = 0x243f6a8885a308d3L, b = 0x13198a2e03707344L, word;
+
+        // Each code fits in five bits, so twelve go in each word.
+        for(int i = 0; i < Board.NUM_CELLS; i += 12)
+        {
+            word = 0;
+            for(int j = i; j < Math.min(i + 12, Board.NUM_CELLS); ++j)
+                word = word << 5 | form[j];
+            a = mix(a ^ word);
+            b = mix(b + word * 0x9e3779b97f4a7c15L);
+        }
+
+        fingerprint[0] = a;
+        fingerprint[1] = mix(b ^ a);
+    }
+
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,114 @@
+package hexadoku;
+
+/**
+ * Contains methods for working with cell masks: sets of cells packed one bit
+ * per cell into WORDS longs. Bit (i % 64) of word (i / 64) is cell i.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public final class CellMask
+{
+    // The number of longs in a mask of every cell on the board.
+    public static final int WORDS = (Board.NUM_CELLS + 63) / 64;
+
+    private CellMask()
+    {
+    }
+
+    /**
+     * Creates an empty mask big enough for every cell on the board.
+     *
+     * @return the mask.
+     */
+    public static long[] create()
+    {
+        return new long[WORDS];
+    }
+
+    public static boolean isSet(long[] mask, int index)
+    {
+        return (mask[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public static void set(long[] mask, int index)
+    {
+        mask[index >>> 6] |= 1L << index;
+    }
+
+    public static void clear(long[] mask, int index)
+    {
+        mask[index >>> 6] &= ~(1L << index);
+    }
+
+    /**
+     * Removes every cell from a mask.
+     *
+     * @param mask the mask to clear.
+     */
+    public static void clearAll(long[] mask)
+    {
+        for(int i = 0; i < mask.length; ++i)
+            mask[i] = 0;
+    }
+
+    /**
+     * Copies one mask over another of the same size.
+     *
+     * @param from the mask to copy.
+     * @param to the mask to overwrite.
+     */
+    public static void copy(long[] from, long[] to)
+    {
+        for(int i = 0; i < from.length; ++i)
+            to[i] = from[i];
+    }
+
+    /**
+     * Counts the cells in a mask.
+     *
+     * @param mask the mask to count.
+     * @return the number of bits set.
+     */
+    public static int count(long[] mask)
+    {
+        int n = 0;
+
+        for(int i = 0; i < mask.length; ++i)
+            n += Long.bitCount(mask[i]);
+
+        return n;
+    }
+
+    /**
+     * Tests whether two masks of the same size hold the same cells.
+     *
+     * @return true if they are equal.
+     */
+    public static boolean equals(long[] a, long[] b)
+    {
+        long diff = 0;
+
+        for(int i = 0; i < a.length; ++i)
+            diff |= a[i] ^ b[i];
+
+        return diff == 0;
+    }
+
+    /**
+     * Hashes a mask.
+     *
+     * @param mask the mask to hash.
+     * @return the hash.
+     */
+    public static long hash(long[] mask)
+    {
+        long h = 0;
+
+        for(int i = 0; i < mask.length; ++i)
+            h = (h ^ mask[i]) * 0x9e3779b97f4a7c15L;
+
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -0,0 +1,119 @@
+package hexadoku;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Describes the binary corpus format: a file of fixed-width puzzle records,
+ * so that puzzle n can be found without reading any of the others.
+ *
+ * The file starts with a HEADER_SIZE-byte header: the magic bytes "HXDK",
+ * then the format version and the record size as little-endian ints. After
+ * it come the records, RECORD_SIZE bytes each:
+ *
+ *   0   the solution, two cells per byte, the even cell in the low nibble
+ *   128 the mask, as the CellMask.WORDS little-endian longs of a cell mask
+ *   160 the puzzle's ID, a long
+ *   168 the number of visible cells, an unsigned short
+ *   170 the difficulty, a byte
+ *   171 reserved, zero
+ *
+ * A record cut short by a crash is ignored by readers and overwritten by the
+ * next writer.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public final class Corpus
+{
+    public static final int MAGIC = 0x4b445848; // "HXDK", little-endian
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 176;
+    public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // The offsets of the fields of a record.
+    static final int SOLUTION = 0;
+    static final int MASK = SOLUTION + Board.NUM_CELLS / 2;
+    static final int ID = MASK + CellMask.WORDS * 8;
+    static final int NUM_VISIBLE = ID + 8;
+    static final int DIFFICULTY = NUM_VISIBLE + 2;
+
+    private Corpus()
+    {
+    }
+
+    /**
+     * Puts a file's header into a buffer.
+     *
+     * @param buffer the buffer to put the header into, at its position.
+     */
+    static void putHeader(ByteBuffer buffer)
+    {
+        buffer.order(ORDER);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0);
+    }
+
+    /**
+     * Checks a file's header.
+     *
+     * @param buffer the buffer holding the header, at its position.
+     * @throws IOException if the header isn't for this version of the format.
+     */
+    static void checkHeader(ByteBuffer buffer) throws IOException
+    {
+        buffer.order(ORDER);
+        if(buffer.getInt() != MAGIC)
+            throw new IOException("not a hexadoku corpus");
+        if(buffer.getInt() != VERSION || buffer.getInt() != RECORD_SIZE)
+            throw new IOException("unsupported hexadoku corpus version");
+    }
+
+    /**
+     * Puts a record into a buffer.
+     *
+     * @param buffer the buffer to put the record into, at its position.
+     * @param id the puzzle's ID.
+     * @param solution the fully populated board.
+     * @param mask which cells are visible.
+     * @param difficulty the tier of the hardest technique needed.
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    static void putRecord(ByteBuffer buffer, long id, Board solution,
+                          long[] mask, int difficulty)
+    {
+        Geometry.STANDARD.check(solution);
+        for(int i = 0; i < Board.NUM_CELLS; i += 2)
+            buffer.put((byte)(digitOf(solution, i) | digitOf(solution, i + 1) << 4));
+        for(int i = 0; i < CellMask.WORDS; ++i)
+            buffer.putLong(mask[i]);
+        buffer.putLong(id);
+        buffer.putShort((short)CellMask.count(mask));
+        buffer.put((byte)difficulty);
+        for(int i = DIFFICULTY + 1; i < RECORD_SIZE; ++i)
+            buffer.put((byte)0);
+    }
+
+    private static int digitOf(Board solution, int index)
+    {
+        int digit = Board.digitCharToInt(solution.getCellValue(index));
+
+        if(digit == -1)
+            throw new IllegalArgumentException("solution is not fully populated");
+
+        return digit;
+    }
+
+    /**
+     * Gets a cell's digit from a record.
+     *
+     * @param buffer the buffer holding the record.
+     * @param record the offset of the record in the buffer.
+     * @param index the index of the cell.
+     * @return the digit, from 0 to NUM_DIGITS - 1.
+     */
+    static int getDigit(ByteBuffer buffer, int record, int index)
+    {
+        return buffer.get(record + SOLUTION + (index >>> 1)) >>> ((index & 1) << 2) & 0xF;
+    }
+}
@@ -0,0 +1,211 @@
+package hexadoku;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads puzzles from a corpus file; see Corpus for the format. The file is
+ * mapped into memory, so any puzzle can be read by its index without parsing
+ * the ones before it, and its solution can be used in place as a Board.
+ *
+ * Only the records in the file when it was opened can be read. Instances are
+ * safe to read from many threads at once.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class CorpusReader implements Closeable
+{
+    // The most records mapped by one buffer, which can't hold 2 GB or more.
+    private static final int SEGMENT_RECORDS = Integer.MAX_VALUE / Corpus.RECORD_SIZE;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    /**
+     * A solution read in place from a record.
+     */
+    private static class RecordBoard extends Board
+    {
+        private final ByteBuffer buffer;
+        private final int record;
+
+        RecordBoard(ByteBuffer buffer, int record)
+        {
+            this.buffer = buffer;
+            this.record = record;
+        }
+
+        /**
+         * Gets a cell's value by index.
+         *
+         * @param index the index of the cell to use.
+         * @return either the cell's value, or '\0' if the index is invalid.
+         */
+        public char getCellValue(int index)
+        {
+            // Past the cells are the rest of the record, and other records.
+            return index >= 0 && index < NUM_CELLS ?
+                   intToDigitChar(Corpus.getDigit(buffer, record, index)) : '\0';
+        }
+
+        /**
+         * Tests whether every zone holds every digit.
+         *
+         * @return true if the board is a valid solution.
+         */
+        public boolean isValid()
+        {
+            int used;
+
+            for(int zone = 0; zone < NUM_ZONES; ++zone)
+            {
+                used = 0;
+                for(int i = 0; i < NUM_DIGITS; ++i)
+                    used |= 1 << Corpus.getDigit(buffer, record, Geometry.STANDARD.zoneCell(zone, i));
+                if(used != CandidateGrid.ALL_DIGITS)
+                    return false;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Opens a corpus for reading.
+     *
+     * @param file the corpus file.
+     * @throws IOException if the file can't be opened or isn't a corpus.
+     */
+    public CorpusReader(File file) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try
+        {
+            ByteBuffer header = ByteBuffer.allocate(Corpus.HEADER_SIZE);
+            long length = channel.size(), start;
+            int n;
+
+            if(length < Corpus.HEADER_SIZE)
+                throw new IOException("truncated hexadoku corpus header");
+            while(header.hasRemaining())
+                channel.read(header, header.position());
+            header.flip();
+            Corpus.checkHeader(header);
+
+            // A record cut short at the end is left out.
+            size = (length - Corpus.HEADER_SIZE) / Corpus.RECORD_SIZE;
+            segments = new MappedByteBuffer[(int)((size + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS)];
+            for(int i = 0; i < segments.length; ++i)
+            {
+                start = (long)i * SEGMENT_RECORDS;
+                n = (int)Math.min(SEGMENT_RECORDS, size - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                          Corpus.HEADER_SIZE + start * Corpus.RECORD_SIZE,
+                                          (long)n * Corpus.RECORD_SIZE);
+                segments[i].order(Corpus.ORDER);
+            }
+        }
+        catch(IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private ByteBuffer segment(long n)
+    {
+        if(n < 0 || n >= size)
+            throw new IndexOutOfBoundsException("no puzzle " + n + " in a corpus of " + size);
+
+        return segments[(int)(n / SEGMENT_RECORDS)];
+    }
+
+    private static int offset(long n)
+    {
+        return (int)(n % SEGMENT_RECORDS) * Corpus.RECORD_SIZE;
+    }
+
+    /**
+     * Gets the number of puzzles in the corpus.
+     *
+     * @return the number of records.
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    public long getId(long n)
+    {
+        return segment(n).getLong(offset(n) + Corpus.ID);
+    }
+
+    public int getNumVisible(long n)
+    {
+        return segment(n).getShort(offset(n) + Corpus.NUM_VISIBLE) & 0xFFFF;
+    }
+
+    public int getDifficulty(long n)
+    {
+        return segment(n).get(offset(n) + Corpus.DIFFICULTY);
+    }
+
+    /**
+     * Copies which cells of a puzzle are visible into a cell mask.
+     *
+     * @param n the index of the puzzle.
+     * @param mask the mask to overwrite.
+     */
+    public void getMask(long n, long[] mask)
+    {
+        ByteBuffer buffer = segment(n);
+        int record = offset(n) + Corpus.MASK;
+
+        for(int i = 0; i < CellMask.WORDS; ++i)
+            mask[i] = buffer.getLong(record + 8 * i);
+    }
+
+    /**
+     * Gets the solution of a puzzle. Nothing is copied: the board reads its
+     * cells from the mapped file.
+     *
+     * @param n the index of the puzzle.
+     * @return the fully populated board.
+     */
+    public Board getSolution(long n)
+    {
+        return new RecordBoard(segment(n), offset(n));
+    }
+
+    /**
+     * Gets a puzzle. Its mask is copied, but its solution is read in place.
+     *
+     * @param n the index of the puzzle.
+     * @return the puzzle.
+     */
+    public MaskedBoard getPuzzle(long n)
+    {
+        long[] mask = CellMask.create();
+
+        getMask(n, mask);
+        return new MaskedBoard(getSolution(n), mask, getDifficulty(n));
+    }
+
+    /**
+     * Closes the file. The mapping itself is released once nothing refers to
+     * it any more.
+     *
+     * @throws IOException if closing fails.
+     */
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
@@ -0,0 +1,150 @@
+package hexadoku;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends puzzles to a corpus file; see Corpus for the format. A new file is
+ * created with a header, and an existing one is added to. Records are
+ * collected in a buffer and written a batch at a time, so flush() or close()
+ * must be called for the last of them to reach the file.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class CorpusWriter implements Closeable
+{
+    // The number of records written to the file at once.
+    private static final int BATCH_RECORDS = 256;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer =
+            ByteBuffer.allocateDirect(BATCH_RECORDS * Corpus.RECORD_SIZE).order(Corpus.ORDER);
+    // The number of records in the file, counting those in the buffer.
+    private long size;
+
+    /**
+     * Opens a corpus for appending, creating it if it doesn't exist.
+     *
+     * @param file the corpus file.
+     * @throws IOException if the file can't be opened or isn't a corpus.
+     */
+    public CorpusWriter(File file) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                   StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try
+        {
+            ByteBuffer header = ByteBuffer.allocate(Corpus.HEADER_SIZE);
+            long length = channel.size();
+
+            if(length == 0)
+            {
+                Corpus.putHeader(header);
+                header.flip();
+                while(header.hasRemaining())
+                    channel.write(header);
+            }
+            else
+            {
+                if(length < Corpus.HEADER_SIZE)
+                    throw new IOException("truncated hexadoku corpus header");
+                while(header.hasRemaining())
+                    channel.read(header, header.position());
+                header.flip();
+                Corpus.checkHeader(header);
+            }
+
+            // Drop any record that was cut short, and add after the rest.
+            size = Math.max(0, length - Corpus.HEADER_SIZE) / Corpus.RECORD_SIZE;
+            channel.truncate(Corpus.HEADER_SIZE + size * Corpus.RECORD_SIZE);
+            channel.position(Corpus.HEADER_SIZE + size * Corpus.RECORD_SIZE);
+        }
+        catch(IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a puzzle.
+     *
+     * @param id the puzzle's ID.
+     * @param solution the fully populated board.
+     * @param mask which cells are visible.
+     * @param difficulty the tier of the hardest technique needed to solve it.
+     * @return the index of the puzzle's record.
+     * @throws IOException if writing fails.
+     */
+    public long append(long id, Board solution, long[] mask, int difficulty) throws IOException
+    {
+        if(!buffer.hasRemaining())
+            flush();
+
+        Corpus.putRecord(buffer, id, solution, mask, difficulty);
+        return size++;
+    }
+
+    /**
+     * Appends a puzzle.
+     *
+     * @param id the puzzle's ID.
+     * @param mboard the puzzle.
+     * @return the index of the puzzle's record.
+     * @throws IOException if writing fails.
+     */
+    public long append(long id, MaskedBoard mboard) throws IOException
+    {
+        long[] mask = CellMask.create();
+
+        mboard.getMask(mask);
+        return append(id, mboard.getSolution(), mask, mboard.getDifficulty());
+    }
+
+    /**
+     * Gets the number of puzzles in the corpus.
+     *
+     * @return the number of records, including those not yet flushed.
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * Writes the buffered records to the file.
+     *
+     * @throws IOException if writing fails.
+     */
+    public void flush() throws IOException
+    {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes the buffered records and closes the file.
+     *
+     * @throws IOException if writing fails.
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+}
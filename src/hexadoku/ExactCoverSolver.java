@@ -0,0 +1,278 @@
+package hexadoku;
+
+/**
+ * Counts the solutions of a board by exhaustive search, so that a puzzle can
+ * be checked to have exactly one.
+ *
+ * Filling a board is an exact cover problem: each of the 1024 choices of a
+ * digit for a cell must be picked so that every one of the 1024 constraints
+ * (each cell has a digit; each row, column, and square has each digit) is
+ * covered exactly once. Rather than dancing links, the constraints are kept as
+ * bitboards: the filled cells, and a used-digit mask for each zone. At every
+ * step the search branches on the constraint with the fewest ways left to
+ * cover it, which is either the empty cell with the fewest candidates or a
+ * digit that fits in only one cell of a zone.
+ *
+ * Only standard boards can be solved. A solver holds its scratch space, so
+ * one can be reused for many boards without allocating. Instances are not
+ * thread-safe.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class ExactCoverSolver
+{
+    // The number of solutions counted by default: enough to tell if a board
+    // has a unique solution.
+    public static final int DEFAULT_LIMIT = 2;
+    // The zone tables of the standard board, the only one solved here.
+    private static final Geometry STANDARD = Geometry.STANDARD;
+
+    // The digit in each cell, or -1 if the cell is empty.
+    private final int[] cells = new int[Board.NUM_CELLS];
+    // The digits used by each zone.
+    private final int[] zoneUsed = new int[Board.NUM_ZONES];
+    // The candidates of each cell, as computed by the current search step.
+    private final int[] candidates = new int[Board.NUM_CELLS];
+    // The first solution found.
+    private final int[] solution = new int[Board.NUM_CELLS];
+    private int numFilled, numSolutions, limit;
+    private long nodes;
+
+    private void clear()
+    {
+        for(int i = 0; i < Board.NUM_CELLS; ++i)
+            cells[i] = -1;
+        for(int i = 0; i < Board.NUM_ZONES; ++i)
+            zoneUsed[i] = 0;
+        numFilled = numSolutions = 0;
+        nodes = 0;
+    }
+
+    private void place(int index, int digit)
+    {
+        final int bit = 1 << digit;
+
+        zoneUsed[STANDARD.cellZone(index, 0)] |= bit;
+        zoneUsed[STANDARD.cellZone(index, 1)] |= bit;
+        zoneUsed[STANDARD.cellZone(index, 2)] |= bit;
+        cells[index] = digit;
+        numFilled++;
+    }
+
+    private void unplace(int index)
+    {
+        final int bit = 1 << cells[index];
+
+        zoneUsed[STANDARD.cellZone(index, 0)] &= ~bit;
+        zoneUsed[STANDARD.cellZone(index, 1)] &= ~bit;
+        zoneUsed[STANDARD.cellZone(index, 2)] &= ~bit;
+        cells[index] = -1;
+        numFilled--;
+    }
+
+    /**
+     * Places the visible cells of a board. If two of them conflict, the board
+     * has no solutions.
+     *
+     * @return false if the board breaks a constraint.
+     */
+    private boolean load(Board board)
+    {
+        int digit;
+
+        clear();
+
+        for(int i = 0; i < Board.NUM_CELLS; ++i)
+            if((digit = Board.digitCharToInt(board.getCellValue(i))) != -1)
+            {
+                if(!canPlace(i, digit))
+                    return false;
+                place(i, digit);
+            }
+
+        return true;
+    }
+
+    private boolean canPlace(int index, int digit)
+    {
+        return ((zoneUsed[STANDARD.cellZone(index, 0)] | zoneUsed[STANDARD.cellZone(index, 1)] |
+                 zoneUsed[STANDARD.cellZone(index, 2)]) & (1 << digit)) == 0;
+    }
+
+    /**
+     * Searches for solutions from the current state, stopping once the limit
+     * has been reached. The state is the same afterwards as before.
+     */
+    private void search()
+    {
+        int i, zone, index, count, once, twice, missing, single;
+        int best = -1, bestCount = Board.NUM_DIGITS + 1, bestCandidates;
+
+        nodes++;
+
+        // Every cell is filled, so this is a solution.
+        if(numFilled == Board.NUM_CELLS)
+        {
+            if(numSolutions++ == 0)
+                System.arraycopy(cells, 0, solution, 0, Board.NUM_CELLS);
+            return;
+        }
+
+        // Find the empty cell with the fewest candidates. If a cell has none,
+        // this branch is dead.
+        for(index = 0; index < Board.NUM_CELLS; ++index)
+        {
+            if(cells[index] != -1)
+            {
+                candidates[index] = 0;
+                continue;
+            }
+
+            candidates[index] = ~(zoneUsed[STANDARD.cellZone(index, 0)] |
+                                  zoneUsed[STANDARD.cellZone(index, 1)] |
+                                  zoneUsed[STANDARD.cellZone(index, 2)]) & CandidateGrid.ALL_DIGITS;
+            count = Integer.bitCount(candidates[index]);
+            if(count < bestCount)
+            {
+                if(count == 0)
+                    return;
+                best = index;
+                bestCount = count;
+            }
+        }
+
+        // A cell with one candidate can't be beaten. Otherwise, look for a
+        // digit that a zone can only put in one place, or can't place at all.
+        if(bestCount > 1)
+            for(zone = 0; zone < Board.NUM_ZONES; ++zone)
+            {
+                once = twice = 0;
+                for(i = 0; i < Board.NUM_DIGITS; ++i)
+                {
+                    final int c = candidates[STANDARD.zoneCell(zone, i)];
+
+                    twice |= once & c;
+                    once |= c;
+                }
+
+                missing = ~zoneUsed[zone] & CandidateGrid.ALL_DIGITS;
+                if((missing & ~once) != 0)
+                    return;
+                if((single = once & ~twice) == 0)
+                    continue;
+
+                // Place the digit in the one cell of the zone that takes it.
+                single = Integer.lowestOneBit(single);
+                for(i = 0; i < Board.NUM_DIGITS; ++i)
+                    if((candidates[index = STANDARD.zoneCell(zone, i)] & single) != 0)
+                        break;
+                place(index, Integer.numberOfTrailingZeros(single));
+                search();
+                unplace(index);
+                return;
+            }
+
+        // Try every candidate of the most constrained cell. The candidates
+        // array is overwritten by the deeper steps, so save them first.
+        bestCandidates = candidates[best];
+        while(bestCandidates != 0 && numSolutions < limit)
+        {
+            place(best, Integer.numberOfTrailingZeros(bestCandidates));
+            search();
+            unplace(best);
+            bestCandidates &= bestCandidates - 1;
+        }
+    }
+
+    /**
+     * Counts the solutions of a board, up to a limit. The visible cells of
+     * the board are taken as given, and the rest are filled in.
+     *
+     * @param board the board to solve.
+     * @param limit the number of solutions at which to stop searching.
+     * @return the number of solutions, or the limit if there are more.
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    public int countSolutions(Board board, int limit)
+    {
+        Geometry.STANDARD.check(board);
+        this.limit = limit;
+
+        if(!load(board))
+            return 0;
+        if(limit > 0)
+            search();
+
+        return Math.min(numSolutions, limit);
+    }
+
+    /**
+     * Counts the solutions of a board, up to DEFAULT_LIMIT.
+     *
+     * @param board the board to solve.
+     * @return the number of solutions: 0, 1, or DEFAULT_LIMIT for "more".
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    public int countSolutions(Board board)
+    {
+        return countSolutions(board, DEFAULT_LIMIT);
+    }
+
+    /**
+     * Counts the solutions of a board if only some of its cells were
+     * visible. Neither argument is changed.
+     *
+     * @param solution a fully populated board.
+     * @param visible a cell mask of which cells of the board are visible.
+     * @param limit the number of solutions at which to stop searching.
+     * @return the number of solutions, or the limit if there are more.
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    public int countSolutions(Board solution, long[] visible, int limit)
+    {
+        Geometry.STANDARD.check(solution);
+        this.limit = limit;
+
+        clear();
+        for(int i = 0; i < Board.NUM_CELLS; ++i)
+            if(CellMask.isSet(visible, i))
+                place(i, Board.digitCharToInt(solution.getCellValue(i)));
+        if(limit > 0)
+            search();
+
+        return Math.min(numSolutions, limit);
+    }
+
+    /**
+     * Tests whether a board has exactly one solution.
+     *
+     * @param board the board to solve.
+     * @return true if the board has one solution, false if none or several.
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    public boolean hasUniqueSolution(Board board)
+    {
+        return countSolutions(board, DEFAULT_LIMIT) == 1;
+    }
+
+    /**
+     * Gets a digit of the first solution found by the last search.
+     *
+     * @param index the index of the cell.
+     * @return the digit, if a solution was found.
+     */
+    public int getSolutionDigit(int index)
+    {
+        return solution[index];
+    }
+
+    /**
+     * Gets the number of search steps taken by the last search.
+     *
+     * @return the number of nodes of the search tree visited.
+     */
+    public long getNodes()
+    {
+        return nodes;
+    }
+}
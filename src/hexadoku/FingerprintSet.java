@@ -0,0 +1,139 @@
+package hexadoku;
+
+/**
+ * A set of 128-bit fingerprints, as made by Canonicalizer, stored in a flat
+ * array of longs with open addressing. Nothing is allocated per entry, so
+ * millions of fingerprints take 16 bytes each plus the table's slack.
+ *
+ * The set is not thread-safe.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class FingerprintSet
+{
+    // The most entries allowed per slot before the table grows, in 16ths.
+    private static final int MAX_LOAD = 12;
+
+    // Two longs per slot; a slot holding (0, 0) is empty.
+    private long[] table;
+    private int mask, size;
+    // Whether the fingerprint (0, 0) is in the set, as it can't be stored.
+    private boolean hasZero;
+
+    /**
+     * Creates a set.
+     *
+     * @param expected the number of fingerprints it should hold without
+     * growing.
+     */
+    public FingerprintSet(int expected)
+    {
+        int slots = 16;
+
+        while((long)slots * MAX_LOAD / 16 < expected)
+            slots *= 2;
+
+        table = new long[2 * slots];
+        mask = slots - 1;
+    }
+
+    public FingerprintSet()
+    {
+        this(16);
+    }
+
+    /**
+     * Finds the slot of a fingerprint, or the empty slot where it would go.
+     */
+    private int find(long hi, long lo)
+    {
+        // Fingerprints are already well mixed, so their bits index directly.
+        int slot = (int)lo & mask;
+
+        while((table[2 * slot] != 0 || table[2 * slot + 1] != 0) &&
+              (table[2 * slot] != hi || table[2 * slot + 1] != lo))
+            slot = (slot + 1) & mask;
+
+        return slot;
+    }
+
+    private void grow()
+    {
+        long[] old = table;
+        int slot;
+
+        table = new long[2 * old.length];
+        mask = table.length / 2 - 1;
+        for(int i = 0; i < old.length; i += 2)
+            if(old[i] != 0 || old[i + 1] != 0)
+            {
+                slot = find(old[i], old[i + 1]);
+                table[2 * slot] = old[i];
+                table[2 * slot + 1] = old[i + 1];
+            }
+    }
+
+    /**
+     * Adds a fingerprint.
+     *
+     * @param hi the first long of the fingerprint.
+     * @param lo the second long of the fingerprint.
+     * @return true if it was not in the set already.
+     */
+    public boolean add(long hi, long lo)
+    {
+        int slot;
+
+        if(hi == 0 && lo == 0)
+        {
+            if(hasZero)
+                return false;
+            hasZero = true;
+            size++;
+            return true;
+        }
+
+        slot = find(hi, lo);
+        if(table[2 * slot] != 0 || table[2 * slot + 1] != 0)
+            return false;
+
+        table[2 * slot] = hi;
+        table[2 * slot + 1] = lo;
+        if((long)++size * 16 > (long)(mask + 1) * MAX_LOAD)
+            grow();
+        return true;
+    }
+
+    public boolean add(long[] fingerprint)
+    {
+        return add(fingerprint[0], fingerprint[1]);
+    }
+
+    /**
+     * Tests whether a fingerprint is in the set.
+     *
+     * @param hi the first long of the fingerprint.
+     * @param lo the second long of the fingerprint.
+     * @return true if it is.
+     */
+    public boolean contains(long hi, long lo)
+    {
+        int slot;
+
+        if(hi == 0 && lo == 0)
+            return hasZero;
+
+        slot = find(hi, lo);
+        return table[2 * slot] != 0 || table[2 * slot + 1] != 0;
+    }
+
+    public boolean contains(long[] fingerprint)
+    {
+        return contains(fingerprint[0], fingerprint[1]);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+}
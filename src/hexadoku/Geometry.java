@@ -0,0 +1,218 @@
+package hexadoku;
+
+import java.util.Arrays;
+
+/**
+ * Describes the shape of a board whose squares are n cells on a side: n * n
+ * digits, rows, columns, and squares, and n^4 cells. The classic Sudoku is
+ * n = 3; Hexadoku, which the Board constants describe, is n = 4. Digits are
+ * kept in long masks, so n can be at most 8.
+ *
+ * Geometries are immutable, and there is one instance per size.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public final class Geometry
+{
+    public static final int MIN_SIZE = 2;
+    public static final int MAX_SIZE = 8;
+
+    // The symbols used for the digits of each size: the usual 1 to 9 for
+    // Sudoku, 0 to F for Hexadoku, and as many of the rest as are needed.
+    private static final String NINE = "123456789";
+    private static final String SYMBOLS =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz@#";
+
+    private static final Geometry[] sizes = new Geometry[MAX_SIZE + 1];
+
+    // The geometry of Board.
+    public static final Geometry STANDARD = of(Board.NUM_SQRS);
+
+    private final int boxSize, numDigits, numCells, numZones;
+    private final String symbols;
+    private final long allDigits;
+    // The digit of each symbol, or -1 for characters that aren't symbols.
+    private final byte[] symbolDigits = new byte[128];
+    // The cells of each zone, numDigits per zone, and the row, column, and
+    // square zones of each cell.
+    private final int[] zoneCells, cellZones;
+
+    private Geometry(int boxSize)
+    {
+        int zone, i, index, row, col;
+
+        this.boxSize = boxSize;
+        this.numDigits = boxSize * boxSize;
+        this.numCells = numDigits * numDigits;
+        this.numZones = 3 * numDigits;
+        this.symbols = numDigits == NINE.length() ? NINE : SYMBOLS.substring(0, numDigits);
+        this.allDigits = numDigits == 64 ? -1L : (1L << numDigits) - 1;
+        this.zoneCells = new int[numZones * numDigits];
+        this.cellZones = new int[numCells * 3];
+
+        Arrays.fill(symbolDigits, (byte)-1);
+        for(i = 0; i < numDigits; ++i)
+            symbolDigits[symbols.charAt(i)] = (byte)i;
+
+        for(zone = 0; zone < numZones; ++zone)
+            for(i = 0; i < numDigits; ++i)
+            {
+                switch(zone / numDigits)
+                {
+                case 0:
+                    row = zone;
+                    col = i;
+                    break;
+                case 1:
+                    row = i;
+                    col = zone - numDigits;
+                    break;
+                default:
+                    row = ((zone - 2 * numDigits) / boxSize) * boxSize + i / boxSize;
+                    col = ((zone - 2 * numDigits) % boxSize) * boxSize + i % boxSize;
+                    break;
+                }
+
+                index = row * numDigits + col;
+                zoneCells[zone * numDigits + i] = index;
+                cellZones[index * 3 + zone / numDigits] = zone;
+            }
+    }
+
+    /**
+     * Gets the geometry of boards whose squares are a given size.
+     *
+     * @param boxSize the number of cells on a side of a square.
+     * @return the geometry.
+     */
+    public static synchronized Geometry of(int boxSize)
+    {
+        if(boxSize < MIN_SIZE || boxSize > MAX_SIZE)
+            throw new IllegalArgumentException("box size must be from " + MIN_SIZE +
+                                               " to " + MAX_SIZE);
+
+        if(sizes[boxSize] == null)
+            sizes[boxSize] = new Geometry(boxSize);
+
+        return sizes[boxSize];
+    }
+
+    public int getBoxSize()
+    {
+        return boxSize;
+    }
+
+    public int getNumDigits()
+    {
+        return numDigits;
+    }
+
+    public int getNumCells()
+    {
+        return numCells;
+    }
+
+    public int getNumZones()
+    {
+        return numZones;
+    }
+
+    /**
+     * Gets a mask with a bit set for every digit.
+     *
+     * @return the mask.
+     */
+    public long getAllDigits()
+    {
+        return allDigits;
+    }
+
+    /**
+     * Gets a cell of a zone.
+     *
+     * @param zone the zone: rows first, then columns, then squares.
+     * @param i the position of the cell within the zone.
+     * @return the index of the cell.
+     */
+    public int zoneCell(int zone, int i)
+    {
+        return zoneCells[zone * numDigits + i];
+    }
+
+    /**
+     * Gets one of the zones a cell belongs to.
+     *
+     * @param index the index of the cell.
+     * @param kind 0 for the cell's row, 1 for its column, 2 for its square.
+     * @return the zone.
+     */
+    public int cellZone(int index, int kind)
+    {
+        return cellZones[index * 3 + kind];
+    }
+
+    /**
+     * Checks that a board has this geometry, for code that only works on one.
+     *
+     * @param board the board to check.
+     * @throws IllegalArgumentException if the board has another geometry.
+     */
+    public void check(Board board)
+    {
+        if(board.getGeometry() != this)
+            throw new IllegalArgumentException("expected a " + this + " board, not " +
+                                               board.getGeometry());
+    }
+
+    /**
+     * Converts a digit to its symbol.
+     *
+     * @param digit the digit, from 0 to getNumDigits() - 1.
+     * @return the symbol, or '\0' if the digit is invalid.
+     */
+    public char digitChar(int digit)
+    {
+        return digit >= 0 && digit < numDigits ? symbols.charAt(digit) : '\0';
+    }
+
+    /**
+     * Converts a symbol to its digit.
+     *
+     * @param c the symbol.
+     * @return the digit, or -1 if c isn't one of this geometry's symbols.
+     */
+    public int digitOf(char c)
+    {
+        return c < symbolDigits.length ? symbolDigits[c] : -1;
+    }
+
+    /**
+     * Reads the digit of every cell of a board.
+     *
+     * @param board the board to read.
+     * @param digits receives the digit of each cell, or -1 if it is empty.
+     * @throws IllegalArgumentException if the board has another geometry.
+     */
+    public void digitsOf(Board board, byte[] digits)
+    {
+        check(board);
+        for(int i = 0; i < numCells; ++i)
+            digits[i] = (byte)digitOf(board.getCellValue(i));
+    }
+
+    /**
+     * Creates an empty cell mask big enough for every cell; see CellMask.
+     *
+     * @return the mask.
+     */
+    public long[] createMask()
+    {
+        return new long[(numCells + 63) / 64];
+    }
+
+    @Override
+    public String toString()
+    {
+        return numDigits + "x" + numDigits;
+    }
+}
@@ -0,0 +1,616 @@
+package hexadoku;
+
+/**
+ * Solves boards the way a person would, with a series of techniques from
+ * easiest to hardest, and grades how difficult each board is by which of
+ * them it needed.
+ *
+ * The cheapest technique that can make progress is always the one used: after
+ * any technique changes the grid, the search starts again from the first one.
+ * A board's difficulty is the tier of the hardest technique it needed, and its
+ * score adds up the weight of every technique applied.
+ *
+ * A Grader holds its scratch space, so one can be reused for many boards
+ * without allocating. Instances are not thread-safe.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class Grader
+{
+    /**
+     * A way of making progress on a grid: placing digits, or eliminating
+     * candidates. Techniques must only make deductions that are certain.
+     */
+    public static interface Technique
+    {
+        /**
+         * Gets the name of the technique.
+         */
+        String getName();
+
+        /**
+         * Gets how much harder the technique is than the others. This is
+         * added to a board's score every time the technique is applied.
+         */
+        int getWeight();
+
+        /**
+         * Applies the technique everywhere it can be on the grid.
+         *
+         * @param grid the grid to work on.
+         * @param places scratch space the technique may overwrite, so it
+         * needn't allocate: 2N arrays of N masks for a grid of N digits.
+         * @return true if the grid was changed.
+         */
+        boolean apply(CandidateGrid grid, long[][] places);
+    }
+
+    /**
+     * The difficulty of a board, as found by grading it.
+     */
+    public static class Grade
+    {
+        // Whether the techniques were enough to solve the board.
+        private boolean solved;
+        // The tier of the hardest technique needed, or -1 if none were.
+        private int hardestTier;
+        // The sum of the weights of the techniques applied.
+        private int score;
+        // The number of times each tier was applied.
+        private final int[] uses;
+
+        Grade(int numTiers)
+        {
+            uses = new int[numTiers];
+        }
+
+        void clear()
+        {
+            solved = false;
+            hardestTier = -1;
+            score = 0;
+            for(int i = 0; i < uses.length; ++i)
+                uses[i] = 0;
+        }
+
+        public boolean isSolved()
+        {
+            return solved;
+        }
+
+        public int getHardestTier()
+        {
+            return hardestTier;
+        }
+
+        public int getScore()
+        {
+            return score;
+        }
+
+        /**
+         * Gets how many times a tier's technique was applied.
+         *
+         * @param tier the tier.
+         * @return the number of times it changed the grid.
+         */
+        public int getUses(int tier)
+        {
+            return uses[tier];
+        }
+
+        /**
+         * Gets which tiers were needed.
+         *
+         * @return a mask with bit n set if tier n was applied.
+         */
+        public int getTiersUsed()
+        {
+            int mask = 0;
+
+            for(int i = 0; i < uses.length; ++i)
+                if(uses[i] > 0)
+                    mask |= 1 << i;
+
+            return mask;
+        }
+
+        @Override
+        public String toString()
+        {
+            return (solved ? "solved" : "unsolved") + ", hardest tier " +
+                   hardestTier + ", score " + score;
+        }
+    }
+
+    // Places every digit that is the only candidate of its cell.
+    public static final Technique NAKED_SINGLES = new Technique()
+    {
+        public String getName()
+        {
+            return "naked singles";
+        }
+
+        public int getWeight()
+        {
+            return 1;
+        }
+
+        public boolean apply(CandidateGrid grid, long[][] places)
+        {
+            final int numCells = grid.getGeometry().getNumCells();
+            boolean changed = false;
+            long candidates;
+
+            for(int i = 0; i < numCells; ++i)
+                if(!grid.isFilled(i) && Long.bitCount(candidates = grid.candidates(i)) == 1)
+                {
+                    grid.place(i, Long.numberOfTrailingZeros(candidates));
+                    changed = true;
+                }
+
+            return changed;
+        }
+    };
+
+    // Places every digit that has only one cell left in one of its zones.
+    public static final Technique HIDDEN_SINGLES = new Technique()
+    {
+        public String getName()
+        {
+            return "hidden singles";
+        }
+
+        public int getWeight()
+        {
+            return 2;
+        }
+
+        public boolean apply(CandidateGrid grid, long[][] places)
+        {
+            final Geometry geometry = grid.getGeometry();
+            final int numDigits = geometry.getNumDigits();
+            boolean changed = false;
+            int zone, i, index;
+            long once, twice, singles, c;
+
+            for(zone = 0; zone < geometry.getNumZones(); ++zone)
+            {
+                once = twice = 0;
+                for(i = 0; i < numDigits; ++i)
+                    if(!grid.isFilled(index = geometry.zoneCell(zone, i)))
+                    {
+                        c = grid.candidates(index);
+                        twice |= once & c;
+                        once |= c;
+                    }
+
+                if((singles = once & ~twice) == 0)
+                    continue;
+
+                for(i = 0; i < numDigits; ++i)
+                {
+                    index = geometry.zoneCell(zone, i);
+                    if(grid.isFilled(index) || (c = grid.candidates(index) & singles) == 0)
+                        continue;
+                    // A cell can only hold one of them; if it has two, the
+                    // board is broken, and the other is left alone.
+                    grid.place(index, Long.numberOfTrailingZeros(c));
+                    changed = true;
+                }
+            }
+
+            return changed;
+        }
+    };
+
+    // Eliminates digits using the intersections of squares with rows and
+    // columns: if a square's only places for a digit are in one line, the
+    // rest of that line can't have it, and the other way around.
+    public static final Technique LOCKED_CANDIDATES = new Technique()
+    {
+        public String getName()
+        {
+            return "locked candidates";
+        }
+
+        public int getWeight()
+        {
+            return 4;
+        }
+
+        public boolean apply(CandidateGrid grid, long[][] places)
+        {
+            final Geometry geometry = grid.getGeometry();
+            final int n = geometry.getBoxSize();
+            boolean changed = false;
+
+            // Cell i * n of a square is in its ith row, and cell i is in its
+            // ith column.
+            for(int sqr = 2 * geometry.getNumDigits(); sqr < geometry.getNumZones(); ++sqr)
+                for(int i = 0; i < n; ++i)
+                {
+                    changed |= lockLine(grid, sqr, geometry.zoneCell(sqr, i * n), 0);
+                    changed |= lockLine(grid, sqr, geometry.zoneCell(sqr, i), 1);
+                }
+
+            return changed;
+        }
+    };
+
+    /**
+     * Eliminates the locked candidates of the intersection of a square and a
+     * line through it.
+     *
+     * @param grid the grid.
+     * @param sqr the square's zone.
+     * @param cell a cell of the square on the line.
+     * @param kind 0 if the line is a row, 1 if it is a column.
+     * @return true if the grid was changed.
+     */
+    private static boolean lockLine(CandidateGrid grid, int sqr, int cell, int kind)
+    {
+        final Geometry geometry = grid.getGeometry();
+        final int line = geometry.cellZone(cell, kind);
+        long inside = 0, squareRest = 0, lineRest = 0, pointing, claiming;
+        int i, index;
+        boolean changed = false;
+
+        for(i = 0; i < geometry.getNumDigits(); ++i)
+        {
+            if(!grid.isFilled(index = geometry.zoneCell(sqr, i)))
+            {
+                if(geometry.cellZone(index, kind) == line)
+                    inside |= grid.candidates(index);
+                else
+                    squareRest |= grid.candidates(index);
+            }
+
+            if(!grid.isFilled(index = geometry.zoneCell(line, i)) && geometry.cellZone(index, 2) != sqr)
+                lineRest |= grid.candidates(index);
+        }
+
+        // Digits the square can only place on the line, and digits the line
+        // can only place in the square.
+        pointing = inside & ~squareRest;
+        claiming = inside & ~lineRest;
+        if((pointing | claiming) == 0)
+            return false;
+
+        for(i = 0; i < geometry.getNumDigits(); ++i)
+        {
+            if(pointing != 0 && geometry.cellZone(index = geometry.zoneCell(line, i), 2) != sqr)
+                changed |= grid.eliminate(index, pointing);
+            if(claiming != 0 && geometry.cellZone(index = geometry.zoneCell(sqr, i), kind) != line)
+                changed |= grid.eliminate(index, claiming);
+        }
+
+        return changed;
+    }
+
+    // Eliminates digits using pairs of cells in a zone that have the same two
+    // candidates: the rest of the zone can't have either.
+    public static final Technique NAKED_PAIRS = new Technique()
+    {
+        public String getName()
+        {
+            return "naked pairs";
+        }
+
+        public int getWeight()
+        {
+            return 8;
+        }
+
+        public boolean apply(CandidateGrid grid, long[][] places)
+        {
+            final Geometry geometry = grid.getGeometry();
+            final int numDigits = geometry.getNumDigits();
+            boolean changed = false;
+            int zone, i, j, k, a, b;
+            long pair;
+
+            for(zone = 0; zone < geometry.getNumZones(); ++zone)
+                for(i = 0; i < numDigits; ++i)
+                {
+                    a = geometry.zoneCell(zone, i);
+                    if(grid.isFilled(a) || Long.bitCount(pair = grid.candidates(a)) != 2)
+                        continue;
+
+                    for(j = i + 1; j < numDigits; ++j)
+                    {
+                        b = geometry.zoneCell(zone, j);
+                        if(grid.isFilled(b) || grid.candidates(b) != pair)
+                            continue;
+
+                        for(k = 0; k < numDigits; ++k)
+                            if(k != i && k != j)
+                                changed |= grid.eliminate(geometry.zoneCell(zone, k), pair);
+                    }
+                }
+
+            return changed;
+        }
+    };
+
+    // Eliminates digits using pairs of digits that have the same two places
+    // left in a zone: those two cells can't have anything else.
+    public static final Technique HIDDEN_PAIRS = new Technique()
+    {
+        public String getName()
+        {
+            return "hidden pairs";
+        }
+
+        public int getWeight()
+        {
+            return 8;
+        }
+
+        public boolean apply(CandidateGrid grid, long[][] places)
+        {
+            final Geometry geometry = grid.getGeometry();
+            final int numDigits = geometry.getNumDigits();
+            final long[] zonePlaces = places[0];
+            boolean changed = false;
+            int zone, i, d, e;
+            long pair, cells;
+
+            for(zone = 0; zone < geometry.getNumZones(); ++zone)
+            {
+                placesInZone(grid, zone, zonePlaces);
+
+                for(d = 0; d < numDigits; ++d)
+                {
+                    if(Long.bitCount(zonePlaces[d]) != 2)
+                        continue;
+
+                    for(e = d + 1; e < numDigits; ++e)
+                    {
+                        if(zonePlaces[e] != zonePlaces[d])
+                            continue;
+
+                        pair = (1L << d) | (1L << e);
+                        for(cells = zonePlaces[d]; cells != 0; cells &= cells - 1)
+                        {
+                            i = Long.numberOfTrailingZeros(cells);
+                            changed |= grid.eliminate(geometry.zoneCell(zone, i), ~pair);
+                        }
+                    }
+                }
+            }
+
+            return changed;
+        }
+    };
+
+    // Eliminates digits using two rows whose only places for a digit are in
+    // the same two columns: the rest of those columns can't have it. The same
+    // goes for columns and rows the other way around.
+    public static final Technique X_WINGS = new Technique()
+    {
+        public String getName()
+        {
+            return "x-wings";
+        }
+
+        public int getWeight()
+        {
+            return 16;
+        }
+
+        public boolean apply(CandidateGrid grid, long[][] places)
+        {
+            final Geometry geometry = grid.getGeometry();
+            final int numDigits = geometry.getNumDigits();
+            boolean changed = false;
+            int kind, a, b, d, i, first, cover, line;
+            long lines, cross;
+
+            // The places of each digit in each row, by column, and in each
+            // column, by row.
+            for(a = 0; a < 2 * numDigits; ++a)
+                placesInZone(grid, a, places[a]);
+
+            for(kind = 0; kind < 2; ++kind)
+            {
+                first = kind * numDigits;
+                cover = (1 - kind) * numDigits;
+
+                for(d = 0; d < numDigits; ++d)
+                    for(a = 0; a < numDigits; ++a)
+                    {
+                        if(Long.bitCount(lines = places[first + a][d]) != 2)
+                            continue;
+
+                        for(b = a + 1; b < numDigits; ++b)
+                        {
+                            if(places[first + b][d] != lines)
+                                continue;
+
+                            // The digit must be in these two lines at these
+                            // two crossings, so take it out of the rest of
+                            // the crossing lines.
+                            for(cross = lines; cross != 0; cross &= cross - 1)
+                            {
+                                line = cover + Long.numberOfTrailingZeros(cross);
+                                for(i = 0; i < numDigits; ++i)
+                                    if(i != a && i != b)
+                                        changed |= grid.eliminate(geometry.zoneCell(line, i), 1L << d);
+                            }
+                        }
+                    }
+            }
+
+            return changed;
+        }
+    };
+
+    // The techniques used by default, from easiest to hardest.
+    public static final Technique[] DEFAULT_TECHNIQUES =
+    {
+        NAKED_SINGLES, HIDDEN_SINGLES, LOCKED_CANDIDATES,
+        NAKED_PAIRS, HIDDEN_PAIRS, X_WINGS
+    };
+
+    /**
+     * Finds where each digit could go in a zone.
+     *
+     * @param grid the grid.
+     * @param zone the zone.
+     * @param places receives, for each digit, a mask with bit i set if the
+     * digit is a candidate of the zone's ith cell.
+     */
+    private static void placesInZone(CandidateGrid grid, int zone, long[] places)
+    {
+        final Geometry geometry = grid.getGeometry();
+        int i, index;
+        long c;
+
+        for(i = 0; i < places.length; ++i)
+            places[i] = 0;
+
+        for(i = 0; i < geometry.getNumDigits(); ++i)
+            if(!grid.isFilled(index = geometry.zoneCell(zone, i)))
+                for(c = grid.candidates(index); c != 0; c &= c - 1)
+                    places[Long.numberOfTrailingZeros(c)] |= 1L << i;
+    }
+
+    private final Technique[] techniques;
+    private final CandidateGrid grid;
+    private final Grade grade;
+    // Scratch space for the techniques: the places of each digit in each
+    // row, then in each column.
+    private final long[][] places;
+    // The digits of the last solution read, since a mask search grades the
+    // same board over and over.
+    private Board solution;
+    private final byte[] solutionDigits;
+
+    /**
+     * Creates a grader of standard boards that uses the default techniques.
+     */
+    public Grader()
+    {
+        this(Geometry.STANDARD);
+    }
+
+    /**
+     * Creates a grader of boards of a given geometry that uses the default
+     * techniques.
+     *
+     * @param geometry the shape of the boards to grade.
+     */
+    public Grader(Geometry geometry)
+    {
+        this(geometry, DEFAULT_TECHNIQUES);
+    }
+
+    /**
+     * Creates a grader of standard boards that uses the given techniques.
+     *
+     * @param techniques the techniques, from easiest to hardest. The tier of
+     * a technique is its index in the array.
+     */
+    public Grader(Technique[] techniques)
+    {
+        this(Geometry.STANDARD, techniques);
+    }
+
+    /**
+     * Creates a grader of boards of a given geometry that uses the given
+     * techniques.
+     *
+     * @param geometry the shape of the boards to grade.
+     * @param techniques the techniques, from easiest to hardest. The tier of
+     * a technique is its index in the array.
+     */
+    public Grader(Geometry geometry, Technique[] techniques)
+    {
+        this.techniques = techniques.clone();
+        this.grid = new CandidateGrid(geometry);
+        this.grade = new Grade(techniques.length);
+        this.places = new long[2 * geometry.getNumDigits()][geometry.getNumDigits()];
+        this.solutionDigits = new byte[geometry.getNumCells()];
+    }
+
+    public int getNumTiers()
+    {
+        return techniques.length;
+    }
+
+    public Technique getTechnique(int tier)
+    {
+        return techniques[tier];
+    }
+
+    /**
+     * Applies the techniques up to a tier until the grid is solved or none of
+     * them can make any more progress.
+     *
+     * @param maxTier the hardest tier to use.
+     * @return the grade, which is reused by the next call.
+     */
+    private Grade solve(int maxTier)
+    {
+        int tier;
+
+        grade.clear();
+
+        for(tier = 0; tier <= maxTier && !grid.isFull(); )
+        {
+            if(!techniques[tier].apply(grid, places))
+            {
+                tier++;
+                continue;
+            }
+
+            grade.uses[tier]++;
+            grade.score += techniques[tier].getWeight();
+            grade.hardestTier = Math.max(grade.hardestTier, tier);
+            tier = 0;
+        }
+
+        grade.solved = grid.isFull();
+        return grade;
+    }
+
+    /**
+     * Grades a board by solving its visible cells. The board is not changed.
+     *
+     * @param board the board to grade.
+     * @return the grade, which is reused by the next call.
+     * @throws IllegalArgumentException if the board has another geometry.
+     */
+    public Grade grade(Board board)
+    {
+        grid.load(board);
+        return solve(techniques.length - 1);
+    }
+
+    /**
+     * Grades a board as if only some of its cells were visible, using no
+     * technique harder than a tier. Neither argument is changed.
+     *
+     * @param solution a fully populated board.
+     * @param visible a cell mask of which cells of the board are visible.
+     * @param maxTier the hardest tier to use.
+     * @return the grade, which is reused by the next call.
+     * @throws IllegalArgumentException if the board has another geometry.
+     */
+    public Grade grade(Board solution, long[] visible, int maxTier)
+    {
+        if(solution != this.solution)
+        {
+            grid.getGeometry().digitsOf(solution, solutionDigits);
+            this.solution = solution;
+        }
+
+        grid.clear();
+        for(int i = 0; i < solutionDigits.length; ++i)
+            if(CellMask.isSet(visible, i))
+                grid.place(i, solutionDigits[i]);
+
+        return solve(Math.min(maxTier, techniques.length - 1));
+    }
+}
@@ -5,6 +5,7 @@
 
 package hexadoku;
 
+import java.io.IOException;
 import java.io.PrintStream;
 
 /**
@@ -13,55 +14,29 @@ import java.io.PrintStream;
  * @author Sam Fredrickson <kinghajj@gmail.com>
  */
 public class HtmlGenerator {
-    private static String[] header = {
-        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
-        "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">",
-        "<html xmlns=\"http://www.w3.org/1999/xhtml\">",
-        "<head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\"/>",
-        "<title>Hexadoku</title><style type=\"text/css\">",
-        "*{margin:0;padding:0;}",
-        "body{margin-left:auto;margin-right:auto;text-align:center;width:50em;}",
-        "table#board{border:2px solid black;border-collapse:collapse;font-family:\"Courier New\";font-size:16pt;margin-left:auto;margin-right:auto;}",
-        "table#board tbody tr td{border:1px solid black;height:32px;min-width:32px;}",
-        "table#board tbody tr.sb{border-bottom:2px solid black;}table#board tbody tr td.sr {border-right:2px solid black;}",
-        "</style></head><body>",
-    };
-    private static String footer = "</tbody></table></body></html>";
-
-    private static void writeRow(Board board, PrintStream stream, int row)
+    // Each thread renders into its own buffer, which is kept between calls.
+    private static final ThreadLocal<HtmlRenderer> renderers = new ThreadLocal<HtmlRenderer>()
     {
-        char cell;
-        stream.print("<tr");
-        if(row == 3 || row == 7 || row == 11)
-            stream.print(" class=\"sb\"");
-        stream.print('>');
-        for(int i = 0; i < Board.NUM_DIGITS; ++i)
+        @Override
+        protected HtmlRenderer initialValue()
         {
-            stream.print("<td");
-            if(i == 3 || i == 7 || i == 11)
-                stream.print(" class=\"sr\"");
-            stream.print('>');
-            cell = board.getCellValue(row * Board.NUM_DIGITS + i);
-            stream.print(cell == '\0' ? ' ' : cell);
-            stream.print("</td>");
+            return new HtmlRenderer();
         }
-        stream.print("</tr>");
-    }
+    };
 
-    public static void generate(Board board, PrintStream stream, int numVisible)
+    /**
+     * Writes a board as an HTML document.
+     *
+     * @param board the board to write.
+     * @param stream the stream to write it to.
+     * @param numVisible the number of visible cells.
+     * @throws IOException if the stream failed; a PrintStream doesn't throw,
+     * but sets its error flag instead, which is checked here.
+     */
+    public static void generate(Board board, PrintStream stream, int numVisible) throws IOException
     {
-        String ns = "<h1>Hexadoku</h1><h2>By Sam Fredrickson</h2>" +
-                    "<h3>" + numVisible + " Cells Visible</h3>" +
-                    "<table id=\"board\"><tbody>";
-
-        for(String line : header)
-            stream.print(line);
-
-        stream.print(ns);
-
-        for(int row = 0; row < Board.NUM_DIGITS; ++row)
-            writeRow(board, stream, row);
-
-        stream.print(footer);
+        renderers.get().render(board, numVisible).writeTo(stream);
+        if(stream.checkError())
+            throw new IOException("could not write the board");
     }
 }
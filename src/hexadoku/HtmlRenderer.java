@@ -0,0 +1,212 @@
+package hexadoku;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Renders boards as HTML into a reusable byte buffer, so that a whole board
+ * can be written out with a single call instead of hundreds of small ones.
+ *
+ * A document is built by calling beginDocument(), then appendBoard() once per
+ * board, and then endDocument(). The buffer can be written and cleared at any
+ * point, so a long document can be streamed a board at a time. Instances are
+ * not thread-safe.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class HtmlRenderer
+{
+    private static final String[] header = {
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+        "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">",
+        "<html xmlns=\"http://www.w3.org/1999/xhtml\">",
+        "<head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\"/>",
+        "<title>Hexadoku</title><style type=\"text/css\">",
+        "*{margin:0;padding:0;}",
+        "body{margin-left:auto;margin-right:auto;text-align:center;width:50em;}",
+        "div.puzzle{page-break-after:always;}",
+        "table.board{border:2px solid black;border-collapse:collapse;font-family:\"Courier New\";font-size:16pt;margin-left:auto;margin-right:auto;}",
+        "table.board tbody tr td{border:1px solid black;height:32px;min-width:32px;}",
+        "table.board tbody tr.sb{border-bottom:2px solid black;}table.board tbody tr td.sr {border-right:2px solid black;}",
+        "</style></head><body>",
+        "<h1>Hexadoku</h1><h2>By Sam Fredrickson</h2>",
+    };
+    private static final String footer = "</body></html>";
+
+    // The rendered bytes. Everything written is ASCII, so each char is a byte.
+    private byte[] buffer = new byte[8192];
+    private int size;
+
+    private void ensureCapacity(int extra)
+    {
+        if(size + extra > buffer.length)
+        {
+            byte[] bigger = new byte[Math.max(buffer.length * 2, size + extra)];
+
+            System.arraycopy(buffer, 0, bigger, 0, size);
+            buffer = bigger;
+        }
+    }
+
+    private void append(char c)
+    {
+        ensureCapacity(1);
+        buffer[size++] = (byte)c;
+    }
+
+    private void append(String s)
+    {
+        final int n = s.length();
+
+        ensureCapacity(n);
+        for(int i = 0; i < n; ++i)
+            buffer[size++] = (byte)s.charAt(i);
+    }
+
+    private void append(long n)
+    {
+        append(Long.toString(n));
+    }
+
+    // Appends text as character data, escaping what markup would take for
+    // its own, and writing anything past ASCII as a character reference.
+    private void appendEscaped(String s)
+    {
+        int c;
+
+        for(int i = 0; i < s.length(); i += Character.charCount(c))
+        {
+            c = s.codePointAt(i);
+            if(c == '<')
+                append("&lt;");
+            else if(c == '&')
+                append("&amp;");
+            else if(c == '"')
+                append("&quot;");
+            else if(c > 127)
+            {
+                append("&#");
+                append(c);
+                append(';');
+            }
+            else
+                append((char)c);
+        }
+    }
+
+    private void appendRow(Board board, Geometry geometry, int row)
+    {
+        final int n = geometry.getBoxSize(), digits = geometry.getNumDigits();
+        char cell;
+
+        append("<tr");
+        if(row % n == n - 1 && row != digits - 1)
+            append(" class=\"sb\"");
+        append('>');
+        for(int i = 0; i < digits; ++i)
+        {
+            append("<td");
+            if(i % n == n - 1 && i != digits - 1)
+                append(" class=\"sr\"");
+            append('>');
+            cell = board.getCellValue(row * digits + i);
+            append(cell == '\0' ? ' ' : cell);
+            append("</td>");
+        }
+        append("</tr>");
+    }
+
+    /**
+     * Empties the buffer.
+     *
+     * @return this renderer.
+     */
+    public HtmlRenderer clear()
+    {
+        size = 0;
+        return this;
+    }
+
+    /**
+     * Appends the start of a document: everything up to the first board.
+     *
+     * @return this renderer.
+     */
+    public HtmlRenderer beginDocument()
+    {
+        for(String line : header)
+            append(line);
+        return this;
+    }
+
+    /**
+     * Appends a board of any geometry, with a heading saying how many cells
+     * are visible.
+     *
+     * @param board the board to render.
+     * @param numVisible the number of visible cells.
+     * @param title a title to put before the count, or null for none. It is
+     * escaped, so it may hold any text.
+     * @return this renderer.
+     */
+    public HtmlRenderer appendBoard(Board board, int numVisible, String title)
+    {
+        final Geometry geometry = board.getGeometry();
+
+        append("<div class=\"puzzle\"><h3>");
+        if(title != null)
+        {
+            appendEscaped(title);
+            append(": ");
+        }
+        append(numVisible);
+        append(" Cells Visible</h3><table class=\"board\"><tbody>");
+
+        for(int row = 0; row < geometry.getNumDigits(); ++row)
+            appendRow(board, geometry, row);
+
+        append("</tbody></table></div>");
+        return this;
+    }
+
+    /**
+     * Appends the end of a document.
+     *
+     * @return this renderer.
+     */
+    public HtmlRenderer endDocument()
+    {
+        append(footer);
+        return this;
+    }
+
+    /**
+     * Renders a document holding a single board, replacing whatever was in
+     * the buffer.
+     *
+     * @param board the board to render.
+     * @param numVisible the number of visible cells.
+     * @return this renderer.
+     */
+    public HtmlRenderer render(Board board, int numVisible)
+    {
+        return clear().beginDocument().appendBoard(board, numVisible, null).endDocument();
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Writes the buffer to a stream in one call, and then empties it.
+     *
+     * @param stream the stream to write to.
+     * @throws IOException if the stream does.
+     */
+    public void writeTo(OutputStream stream) throws IOException
+    {
+        stream.write(buffer, 0, size);
+        size = 0;
+    }
+}
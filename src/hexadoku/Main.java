@@ -1,6 +1,10 @@
 package hexadoku;
 
+import java.io.File;
 import java.io.PrintStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The entry point to the application.
@@ -12,17 +16,75 @@ public class Main
     /**
      * The entry point to the application.
      *
-     * @param args the command line arguments
+     * @param args the command line arguments: optionally, the ID of the
+     * puzzle to generate. Without one, a random ID is used. Alternatively,
+     * "-batch count [firstId [threads [perFile]]]" generates many puzzles at
+     * once, putting perFile of them in each document if given;
+     * "-corpus file count [firstId [threads]]" appends them to a corpus file
+     * instead; "-read file index" writes out a puzzle from a corpus;
+     * "-dups file" counts the puzzles in a corpus that are the same as an
+     * earlier one up to symmetry; "-check file" counts the puzzles in a
+     * corpus that can be easily solved, many at a time; and "-size n [id]"
+     * generates a puzzle whose squares are n cells on a side, such as 3 for a
+     * 9x9 Sudoku or 6 for a 36x36 one. Boards up to 36x36 are searched for
+     * like standard ones; from 49x49 up the search often gets stuck, and then
+     * the board is scrambled from a pattern, which can't make every board.
+     * Only standard puzzles can be batched or kept in a corpus.
+     *
+     * With the system property "hexadoku.metrics.period" set to a number of
+     * milliseconds, a snapshot of the metrics is printed to standard error
+     * that often, and once more at the end. With "hexadoku.dig" set, batches
+     * are masked by digging cells out instead of searching; see
+     * MaskedBoard.dig().
      */
     public static void main(String[] args)
     {
+        final long period = Long.getLong("hexadoku.metrics.period", 0);
+        ScheduledExecutorService reporter = period > 0 ?
+                Metrics.reportEvery(period, TimeUnit.MILLISECONDS, System.err) : null;
+
         try
         {
-            RandomBoard rboard = new RandomBoard();
-            MaskedBoard mboard = new MaskedBoard(rboard);
+            if(args.length > 0 && args[0].equals("-batch"))
+            {
+                batch(args);
+                return;
+            }
+            if(args.length > 0 && args[0].equals("-corpus"))
+            {
+                corpus(args);
+                return;
+            }
+            if(args.length > 0 && args[0].equals("-read"))
+            {
+                read(args);
+                return;
+            }
+            if(args.length > 0 && args[0].equals("-dups"))
+            {
+                dups(args);
+                return;
+            }
+            if(args.length > 0 && args[0].equals("-check"))
+            {
+                check(args);
+                return;
+            }
+            if(args.length > 0 && args[0].equals("-size"))
+            {
+                size(args);
+                return;
+            }
+
+            long id = args.length > 0 ? Long.parseLong(args[0]) :
+                      new SplittableRandom().nextLong();
+            MaskedBoard mboard = MaskedBoard.fromId(id);
+            Board rboard = mboard.getSolution();
+            System.out.println("Puzzle ID: " + id);
+            System.out.println("There are " + mboard.getNumVisible() + " cells showing.");
             long millis = System.currentTimeMillis();
-            HtmlGenerator.generate(mboard, new PrintStream("G" + millis + ".html"), mboard.getNumVisible());
-            HtmlGenerator.generate(rboard, new PrintStream("K" + millis + ".html"), Board.NUM_CELLS);
+            write(mboard, "G" + millis + ".html", mboard.getNumVisible());
+            write(rboard, "K" + millis + ".html", Board.NUM_CELLS);
             System.out.println("Finished.");
         }
         catch(Exception ex)
@@ -31,5 +93,217 @@ public class Main
             System.err.println(ex.getMessage());
             System.err.println(ex);
         }
+        finally
+        {
+            if(reporter != null)
+            {
+                reporter.shutdownNow();
+                System.err.print(Metrics.snapshot());
+            }
+        }
+    }
+
+    /**
+     * Writes a board to an HTML file.
+     *
+     * @param board the board to write.
+     * @param fileName the name of the file.
+     * @param numVisible the number of visible cells.
+     */
+    private static void write(Board board, String fileName, int numVisible) throws Exception
+    {
+        PrintStream stream = new PrintStream(fileName);
+
+        try
+        {
+            HtmlGenerator.generate(board, stream, numVisible);
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * Generates a batch of puzzles across all the cores.
+     *
+     * @param args the command line arguments, starting with "-batch".
+     */
+    private static void batch(String[] args) throws Exception
+    {
+        int count = Integer.parseInt(args[1]);
+        long firstId = args.length > 2 ? Long.parseLong(args[2]) :
+                       new SplittableRandom().nextLong();
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) :
+                      Runtime.getRuntime().availableProcessors();
+        int perFile = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        BatchGenerator generator = new BatchGenerator(count, firstId, threads);
+        double rate;
+
+        System.out.println("Generating puzzles " + firstId + " to " +
+                           (firstId + count - 1) + " with " + threads + " threads.");
+        generator.setPuzzlesPerFile(perFile);
+        generator.setDig(Boolean.getBoolean("hexadoku.dig"));
+        rate = generator.run();
+        System.out.println("Finished " + count + " puzzles at " +
+                           String.format("%.1f", rate) + " puzzles/sec.");
+    }
+
+    /**
+     * Generates a batch of puzzles across all the cores into a corpus.
+     *
+     * @param args the command line arguments, starting with "-corpus".
+     */
+    private static void corpus(String[] args) throws Exception
+    {
+        File file = new File(args[1]);
+        int count = Integer.parseInt(args[2]);
+        long firstId = args.length > 3 ? Long.parseLong(args[3]) :
+                       new SplittableRandom().nextLong();
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) :
+                      Runtime.getRuntime().availableProcessors();
+        BatchGenerator generator = new BatchGenerator(count, firstId, threads);
+        double rate;
+
+        System.out.println("Adding puzzles " + firstId + " to " +
+                           (firstId + count - 1) + " to " + file + ".");
+        generator.setCorpus(file);
+        generator.setDig(Boolean.getBoolean("hexadoku.dig"));
+        rate = generator.run();
+        System.out.println("Finished " + count + " puzzles at " +
+                           String.format("%.1f", rate) + " puzzles/sec.");
+    }
+
+    /**
+     * Writes out a puzzle and its answer key from a corpus.
+     *
+     * @param args the command line arguments, starting with "-read".
+     */
+    private static void read(String[] args) throws Exception
+    {
+        CorpusReader reader = new CorpusReader(new File(args[1]));
+
+        try
+        {
+            long n = Long.parseLong(args[2]);
+            MaskedBoard mboard = reader.getPuzzle(n);
+            long id = reader.getId(n);
+
+            System.out.println("Puzzle ID: " + id);
+            write(mboard, "G" + id + ".html", mboard.getNumVisible());
+            write(mboard.getSolution(), "K" + id + ".html", Board.NUM_CELLS);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Generates a puzzle and its answer key of another size.
+     *
+     * @param args the command line arguments, starting with "-size".
+     */
+    private static void size(String[] args) throws Exception
+    {
+        Geometry geometry = Geometry.of(Integer.parseInt(args[1]));
+        long id = args.length > 2 ? Long.parseLong(args[2]) :
+                  new SplittableRandom().nextLong();
+        MaskedBoard mboard = MaskedBoard.fromId(geometry, id);
+        long millis = System.currentTimeMillis();
+
+        System.out.println("Puzzle ID: " + id + " (" + geometry + ")");
+        if(((RandomBoard)mboard.getSolution()).isFromPattern())
+            System.out.println("The search got stuck, so the board was scrambled from a pattern.");
+        System.out.println("There are " + mboard.getNumVisible() + " cells showing.");
+        write(mboard, "G" + millis + ".html", mboard.getNumVisible());
+        write(mboard.getSolution(), "K" + millis + ".html", geometry.getNumCells());
+        System.out.println("Finished.");
+    }
+
+    /**
+     * Counts the solutions and puzzles in a corpus that are the same as an
+     * earlier one up to symmetry.
+     *
+     * @param args the command line arguments, starting with "-dups".
+     */
+    private static void dups(String[] args) throws Exception
+    {
+        CorpusReader reader = new CorpusReader(new File(args[1]));
+
+        try
+        {
+            final int size = (int)Math.min(reader.size(), Integer.MAX_VALUE);
+            Canonicalizer canonicalizer = new Canonicalizer();
+            FingerprintSet solutions = new FingerprintSet(size);
+            FingerprintSet puzzles = new FingerprintSet(size);
+            long[] solutionFingerprint = new long[2], fingerprint = new long[2];
+            long dupSolutions = 0, dupPuzzles = 0;
+
+            for(long n = 0; n < reader.size(); ++n)
+            {
+                MaskedBoard mboard = reader.getPuzzle(n);
+
+                canonicalizer.fingerprint(mboard, solutionFingerprint, fingerprint);
+                if(!solutions.add(solutionFingerprint))
+                    dupSolutions++;
+                if(!puzzles.add(fingerprint))
+                    dupPuzzles++;
+            }
+
+            System.out.println(reader.size() + " puzzles: " + dupSolutions +
+                               " duplicate solutions, " + dupPuzzles +
+                               " duplicate puzzles.");
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Counts the puzzles in a corpus that can be easily solved, using a
+     * BatchSolver to solve a batch of them at a time.
+     *
+     * @param args the command line arguments, starting with "-check".
+     */
+    private static void check(String[] args) throws Exception
+    {
+        CorpusReader reader = new CorpusReader(new File(args[1]));
+
+        try
+        {
+            BatchSolver solver = new BatchSolver();
+            long[] mask = CellMask.create();
+            int[] passes = new int[BatchSolver.LANES];
+            long start = System.nanoTime(), solved = 0, totalPasses = 0, result;
+            int count;
+
+            for(long first = 0; first < reader.size(); first += BatchSolver.LANES)
+            {
+                count = (int)Math.min(BatchSolver.LANES, reader.size() - first);
+                solver.clear();
+                for(int lane = 0; lane < count; ++lane)
+                {
+                    reader.getMask(first + lane, mask);
+                    solver.load(lane, reader.getSolution(first + lane), mask);
+                }
+
+                result = solver.solve(passes);
+                solved += Long.bitCount(result);
+                for(int lane = 0; lane < count; ++lane)
+                    totalPasses += passes[lane];
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(reader.size() + " puzzles: " + solved + " can be easily solved, " +
+                               String.format("%.1f", (double)totalPasses / Math.max(1, reader.size())) +
+                               " passes on average, at " +
+                               String.format("%.1f", reader.size() / seconds) + " puzzles/sec.");
+        }
+        finally
+        {
+            reader.close();
+        }
     }
 }
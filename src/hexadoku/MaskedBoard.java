@@ -1,19 +1,26 @@
 package hexadoku;
 
-import java.util.Arrays;
-import java.util.Random;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Represents a partially-filled board.
+ * Represents a partially-filled board. Masks over standard boards are drawn
+ * from four symmetric patterns; boards of other geometries have one, which
+ * shows cells in pairs that are the same under a half turn of the board, and
+ * looks right at any size. Either way they are searched for, dug, cached,
+ * and graded the same way.
  *
  * @author Sam Fredrickson <kinghajj@gmail.com>
  */
 public class MaskedBoard extends Board
 {
-    private RandomBoard board;
-    private Random rand;
-    private boolean[] cellVisible, originalMask;
-    private int numVisible, originalNumVisible;
+    private Board board;
+    private final Geometry geometry;
+    // The cells that are visible now, and those that were visible at first.
+    private long[] cellVisible, originalMask;
+    // The tier of the hardest technique needed to solve the board.
+    private int difficulty;
 
     private final static int[] maskSizes = {64, 127, 128, 128};
     private final static int[] maskIncs  = {4, 2, 2, 2};
@@ -93,39 +100,365 @@ public class MaskedBoard extends Board
         },
     };
 
+    // The number of times each mask is tried for each number of visible cells.
+    private final static int ATTEMPTS_PER_MASK = 1000;
+    // The number of cells of a standard board shown in the first round, and
+    // how many more are shown each round after.
+    private final static int FIRST_VISIBLE = 116;
+    private final static int VISIBLE_STEP = 4;
+    // The number of rounds in which a mask must need exactly the desired
+    // difficulty. After that, easier masks are accepted too.
+    private final static int EXACT_DIFFICULTY_ROUNDS = 10;
+    // The number of masks to remember the results of while searching a
+    // board, set by the system property "hexadoku.cache.size"; a round's
+    // worth, ATTEMPTS_PER_MASK for each mask, is plenty. Each attempt has
+    // its own seed, and a mask picks dozens of orbits out of 64 or more, so
+    // the same mask is practically never drawn twice: the cache is off by
+    // default.
+    private final static int CACHE_SIZE = Integer.getInteger("hexadoku.cache.size", 0);
+
+    private static final Metrics.Counter ROUNDS = Metrics.counter("mask.rounds");
+    private static final Metrics.Histogram ATTEMPTS_PER_PUZZLE = Metrics.histogram("mask.attemptsPerPuzzle");
+    private static final Metrics.Histogram VISIBLE = Metrics.histogram("mask.visible");
+    private static final Metrics.Histogram NANOS = Metrics.histogram("mask.nanos");
+    private static final Metrics.Histogram PUZZLE_NANOS = Metrics.histogram("puzzle.nanos");
+    // A dug mask's solver calls compare with a searched one's attempts,
+    // since without a difficulty each attempt is one solver call.
+    private static final Metrics.Histogram DIG_CALLS = Metrics.histogram("dig.callsPerPuzzle");
+    private static final Metrics.Histogram DIG_VISIBLE = Metrics.histogram("dig.visible");
+    private static final Metrics.Histogram DIG_NANOS = Metrics.histogram("dig.nanos");
+
+    // The masks of each geometry, made when first needed.
+    private final static MaskSet[] maskSets = new MaskSet[Geometry.MAX_SIZE + 1];
+
+    /**
+     * The masks of one geometry: for each of them, the part of the mask that
+     * each cell is in, the number of parts, and how many cells a part shows.
+     */
+    private static class MaskSet
+    {
+        final int[][] indexes;
+        final int[] sizes, incs;
+        // The number of attempts in a round, and the largest mask size.
+        final int numAttempts, maxSize;
+        // The cells of each orbit of each mask: the cells a mask shows or
+        // hides together, which are those whose entries in indexes are the
+        // same once folded by the mask's size, as mask() folds them.
+        final long[][][] orbits;
+        final Metrics.Counter[] attempts, successes;
+
+        MaskSet(Geometry geometry, int[][] indexes, int[] sizes, int[] incs, String name)
+        {
+            int max = 0;
+
+            this.indexes = indexes;
+            this.sizes = sizes;
+            this.incs = incs;
+            this.numAttempts = ATTEMPTS_PER_MASK * indexes.length;
+            this.orbits = new long[indexes.length][][];
+            this.attempts = new Metrics.Counter[indexes.length];
+            this.successes = new Metrics.Counter[indexes.length];
+
+            for(int m = 0; m < indexes.length; ++m)
+            {
+                max = Math.max(max, sizes[m]);
+                attempts[m] = Metrics.counter("mask.attempts." + name + m);
+                successes[m] = Metrics.counter("mask.successes." + name + m);
+                orbits[m] = new long[sizes[m]][];
+                for(int o = 0; o < sizes[m]; ++o)
+                    orbits[m][o] = geometry.createMask();
+                for(int i = 0; i < indexes[m].length; ++i)
+                    CellMask.set(orbits[m][indexes[m][i] % sizes[m]], i);
+            }
+
+            this.maxSize = max;
+        }
+
+        /**
+         * Makes the mask of pairs of cells that are the same under a half
+         * turn. A board with an odd number of cells has a middle cell that
+         * is its own pair.
+         */
+        static MaskSet halfTurn(Geometry geometry)
+        {
+            final int last = geometry.getNumCells() - 1;
+            final int[] indexes = new int[geometry.getNumCells()];
+
+            for(int i = 0; i <= last; ++i)
+                indexes[i] = Math.min(i, last - i);
+
+            return new MaskSet(geometry, new int[][] {indexes},
+                               new int[] {(last + 2) / 2}, new int[] {2}, geometry + ".");
+        }
+
+        /**
+         * Masks the board with the mask specified by the mask index.
+         *
+         * @param maskIndex
+         * @param desiredNumVisible the approximate number of cells to show.
+         * @param rand the random number generator to draw from.
+         * @param M scratch space for which parts of the mask are shown, one
+         * bit per part.
+         * @param visible receives which cells are visible.
+         */
+        void mask(int maskIndex, int desiredNumVisible,
+                  AttemptRandom rand, long[] M, long[] visible)
+        {
+            final int[] ind = indexes[maskIndex];
+            final int size = sizes[maskIndex];
+            final int inc = incs[maskIndex];
+            int i = rand.nextInt(size), j, numVisible = 0;
+
+            CellMask.clearAll(M);
+
+            while(numVisible < desiredNumVisible)
+            {
+                if(rand.nextInt() % 7 == 0 && !CellMask.isSet(M, j = i % size))
+                {
+                    CellMask.set(M, j);
+                    numVisible += inc;
+                }
+                i++;
+            }
+
+            CellMask.clearAll(visible);
+
+            for(i = 0; i < ind.length; ++i)
+                if(CellMask.isSet(M, ind[i] % size))
+                    CellMask.set(visible, i);
+        }
+    }
+
+    /**
+     * Gets the masks of a geometry.
+     *
+     * @param geometry the geometry.
+     * @return the four standard masks, or the half-turn mask for any other
+     * geometry.
+     */
+    private static synchronized MaskSet masksOf(Geometry geometry)
+    {
+        final int n = geometry.getBoxSize();
+
+        if(maskSets[n] == null)
+            maskSets[n] = geometry == Geometry.STANDARD ?
+                          new MaskSet(geometry, maskIndexes, maskSizes, maskIncs, "") :
+                          MaskSet.halfTurn(geometry);
+
+        return maskSets[n];
+    }
+
+    /**
+     * A random number generator for mask attempts that can be reseeded, so a
+     * worker can use one for all its attempts without allocating. It uses
+     * the same SplitMix64 steps as SplittableRandom.
+     */
+    private static class AttemptRandom
+    {
+        private static final long GAMMA = 0x9e3779b97f4a7c15L;
+        private long seed;
+
+        void setSeed(long seed)
+        {
+            this.seed = seed;
+        }
+
+        long nextLong()
+        {
+            long z = seed += GAMMA;
+
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+
+        int nextInt()
+        {
+            return (int)(nextLong() >>> 32);
+        }
+
+        int nextInt(int bound)
+        {
+            return (int)(((nextInt() & 0xffffffffL) * bound) >>> 32);
+        }
+    }
+
     /**
-     * Masks the board with the mask specified by the mask index.
+     * Gets the seed for one of the attempts of a round. Every attempt gets
+     * its own random numbers, so the masks tried don't depend on which thread
+     * tries them or in what order.
      *
-     * @param maskIndex
+     * @param roundSeed the seed of the round.
+     * @param attempt the index of the attempt within the round.
+     * @return the seed of the attempt.
+     */
+    private static long attemptSeed(long roundSeed, int attempt)
+    {
+        long z = roundSeed + attempt * 0x9e3779b97f4a7c15L;
+
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * One round of the search for a mask: ATTEMPTS_PER_MASK attempts of each
+     * mask, with about the same number of visible cells. Attempt n uses mask
+     * n / ATTEMPTS_PER_MASK.
+     * The round's result is the lowest-numbered attempt that can be solved
+     * at the desired difficulty, no matter how many threads search it.
      */
-    private void masker(int maskIndex, int desiredNumVisible)
+    private static class Round
     {
-        final int[] ind = maskIndexes[maskIndex];
-        final int size = maskSizes[maskIndex];
-        final int inc = maskIncs[maskIndex];
-        boolean[] M = new boolean[size];
-        int i = rand.nextInt(size), j;
+        final int desiredNumVisible;
+        final long seed;
+        // Whether masks easier than the desired difficulty are rejected.
+        final boolean exact;
+        // The next attempt to be claimed by a worker.
+        final AtomicInteger next = new AtomicInteger();
+        // The number of attempts, and the lowest successful one so far, or
+        // the number of attempts if none.
+        final int numAttempts;
+        final AtomicInteger best;
 
-        numVisible = 0;
-        Arrays.fill(M, false);
+        Round(int desiredNumVisible, long seed, boolean exact, int numAttempts)
+        {
+            this.desiredNumVisible = desiredNumVisible;
+            this.seed = seed;
+            this.exact = exact;
+            this.numAttempts = numAttempts;
+            this.best = new AtomicInteger(numAttempts);
+        }
 
-        while(numVisible < desiredNumVisible)
+        boolean succeeded()
         {
-            if(rand.nextInt() % 7 == 0 && !M[j = i % size])
+            return best.get() < numAttempts;
+        }
+
+        void succeeded(int attempt)
+        {
+            int current;
+
+            while(attempt < (current = best.get()))
+                if(best.compareAndSet(current, attempt))
+                    break;
+        }
+    }
+
+    /**
+     * Tries masks for a round. Each worker has its own buffers, so any number
+     * of them can search the same board at once; they share a cache of the
+     * masks tried so far, if there is one.
+     */
+    private class Worker
+    {
+        final MaskSet masks;
+        final SolvabilityCache cache;
+        final long[] M;
+        final long[] visible = geometry.createMask();
+        final AttemptRandom rand = new AttemptRandom();
+        final Solver solver = new Solver(geometry);
+        final Grader grader = difficulty > 0 ? new Grader(geometry) : null;
+        // The attempts tried and accepted with each mask, not yet recorded.
+        final int[] attempts;
+        final int[] successes;
+
+        Worker(MaskSet masks, SolvabilityCache cache)
+        {
+            this.masks = masks;
+            this.cache = cache;
+            this.M = new long[(masks.maxSize + 63) / 64];
+            this.attempts = new int[masks.indexes.length];
+            this.successes = new int[masks.indexes.length];
+        }
+
+        /**
+         * Creates the mask of an attempt in the visible buffer.
+         */
+        void mask(Round round, int attempt)
+        {
+            rand.setSeed(attemptSeed(round.seed, attempt));
+            masks.mask(attempt / ATTEMPTS_PER_MASK, round.desiredNumVisible,
+                       rand, M, visible);
+        }
+
+        /**
+         * Claims and tries attempts until none are left that could beat the
+         * best success so far.
+         */
+        void search(Round round)
+        {
+            int attempt;
+
+            while((attempt = round.next.getAndIncrement()) < round.best.get())
+            {
+                mask(round, attempt);
+                attempts[attempt / ATTEMPTS_PER_MASK]++;
+                if(accepts(round))
+                {
+                    successes[attempt / ATTEMPTS_PER_MASK]++;
+                    round.succeeded(attempt);
+                }
+            }
+        }
+
+        /**
+         * Records the attempts made so far in the metrics.
+         *
+         * @return the number of attempts.
+         */
+        int record()
+        {
+            int total = 0;
+
+            for(int i = 0; i < attempts.length; ++i)
             {
-                M[j] = true;
-                numVisible += inc;
+                masks.attempts[i].add(attempts[i]);
+                masks.successes[i].add(successes[i]);
+                total += attempts[i];
             }
-            i++;
+
+            return total;
         }
 
-        numVisible = 0;
+        /**
+         * Tests whether the mask in the visible buffer can be solved with
+         * techniques no harder than the desired difficulty, and, if the round
+         * is exact, whether it needs the hardest of them. A mask that was
+         * tried before isn't solved again.
+         */
+        boolean accepts(Round round)
+        {
+            int tier = cache != null ? cache.get(visible) : SolvabilityCache.MISSING;
 
-        for(i = 0; i < Board.NUM_CELLS; ++i)
-            if(cellVisible[i] = M[ind[i] % size])
-                numVisible++;
+            if(tier == SolvabilityCache.MISSING)
+            {
+                tier = solve();
+                if(cache != null)
+                    cache.put(visible, tier);
+            }
 
-        originalNumVisible = numVisible;
+            return tier >= 0 && (!round.exact || tier == difficulty);
+        }
+
+        /**
+         * Solves the mask in the visible buffer with techniques no harder
+         * than the desired difficulty.
+         *
+         * @return the tier of the hardest technique needed, or -1 if they
+         * aren't enough.
+         */
+        int solve()
+        {
+            Grader.Grade grade;
+
+            // Naked singles are all the solver needs, and it's quicker.
+            if(grader == null)
+                return solver.canSolve(board, visible) ? 0 : -1;
+
+            grade = grader.grade(board, visible, difficulty);
+            return grade.isSolved() ? grade.getHardestTier() : -1;
+        }
     }
 
     /**
@@ -137,38 +470,161 @@ public class MaskedBoard extends Board
      */
     public MaskedBoard(RandomBoard board)
     {
+        this(board, new SplittableRandom());
+    }
+
+    /**
+     * Creates a new mask over the given board that is the same every time it
+     * is created with the same board and seed.
+     *
+     * @param board the board to put the mask over.
+     * @param seed the seed of the mask's random number generator.
+     */
+    public MaskedBoard(RandomBoard board, long seed)
+    {
+        this(board, new SplittableRandom(seed));
+    }
+
+    /**
+     * Creates a new mask over the given board with numbers drawn from the
+     * given generator, using every core to search for it. The generator is
+     * used only by this constructor, and only by the calling thread.
+     *
+     * @param board the board to put the mask over.
+     * @param rand the random number generator to use.
+     */
+    public MaskedBoard(RandomBoard board, SplittableRandom rand)
+    {
+        this(board, rand, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new mask over the given board with numbers drawn from the
+     * given generator. Candidate masks are tried by the given number of
+     * workers at once; the mask chosen is the same however many there are.
+     *
+     * @param board the board to put the mask over.
+     * @param rand the random number generator to use.
+     * @param parallelism the number of workers to try masks with.
+     */
+    public MaskedBoard(RandomBoard board, SplittableRandom rand, int parallelism)
+    {
+        this(board, rand, parallelism, 0);
+    }
+
+    /**
+     * Creates a new mask over the given board that needs the techniques of a
+     * given tier of the default Grader to solve. Tier 0, naked singles, gives
+     * the easiest puzzles. If no mask needing exactly that tier turns up
+     * soon enough, an easier mask may be chosen; getDifficulty() tells which.
+     *
+     * @param board the board to put the mask over.
+     * @param rand the random number generator to use.
+     * @param parallelism the number of workers to try masks with.
+     * @param difficulty the tier of the hardest technique to need.
+     * @throws IllegalArgumentException if the default Grader has no such tier.
+     */
+    public MaskedBoard(RandomBoard board, SplittableRandom rand, int parallelism, int difficulty)
+    {
+        if(difficulty < 0 || difficulty >= Grader.DEFAULT_TECHNIQUES.length)
+            throw new IllegalArgumentException("no difficulty " + difficulty);
+
         this.board = board;
-        this.rand = new Random();
-        this.cellVisible = new boolean[Board.NUM_CELLS];
-        this.originalMask = new boolean[Board.NUM_CELLS];
-        boolean run = true;
+        this.geometry = board.getGeometry();
+        this.difficulty = difficulty;
+        this.cellVisible = geometry.createMask();
+        this.originalMask = geometry.createMask();
+        final MaskSet masks = masksOf(geometry);
+        final int numCells = geometry.getNumCells();
+        final List<Worker> workers = new ArrayList<Worker>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        Round round = null;
+        final long start = System.nanoTime();
+        int attempts = 0;
+
+        // The cache lasts only as long as the search, since it's only any
+        // use for masks over this board.
+        final SolvabilityCache cache = CACHE_SIZE > 0 ? new SolvabilityCache(CACHE_SIZE, geometry) : null;
 
-        // Start with only 116 shown, but go up as needed.
-        for(int desiredNumVisible = 116; run; desiredNumVisible += 4)
+        for(int i = 0; i < Math.max(1, parallelism); ++i)
+            workers.add(new Worker(masks, cache));
+
+        // Start with only 116 shown, or the same share of a board of another
+        // size, but go up as needed.
+        for(int desiredNumVisible = numCells * FIRST_VISIBLE / Board.NUM_CELLS, n = 0;
+            round == null || !round.succeeded();
+            desiredNumVisible += Math.max(2, numCells * VISIBLE_STEP / Board.NUM_CELLS), ++n)
         {
-            System.out.print("Attempting to mask board with approx " + desiredNumVisible + " shown cells");
+            ROUNDS.increment();
+            final Round current = round =
+                    new Round(desiredNumVisible, rand.nextLong(), n < EXACT_DIFFICULTY_ROUNDS,
+                              masks.numAttempts);
 
-            // Try each mask 1000 times.
-            for(int maskIndex = 0; maskIndex < maskIndexes.length && run; ++maskIndex)
+            // Try each mask 1000 times, stopping once one works.
+            if(workers.size() == 1)
+                workers.get(0).search(current);
+            else
             {
-                for(int i = 0; i < 1000 && run; ++i)
-                {
-                    // Run mask.
-                    masker(maskIndex, desiredNumVisible);
-                    // Remember original.
-                    for(int j = 0; j < Board.NUM_CELLS; ++j)
-                        originalMask[j] = cellVisible[j];
-                    // Determine whether we still need to run.
-                    run = !Solver.canEasilySolve(this);
-                }
-                System.out.print('.');
+                tasks.clear();
+                for(final Worker worker : workers)
+                    tasks.add(new Callable<Void>()
+                    {
+                        public Void call()
+                        {
+                            worker.search(current);
+                            return null;
+                        }
+                    });
+                for(Future<Void> task : ForkJoinPool.commonPool().invokeAll(tasks))
+                    try
+                    {
+                        task.get();
+                    }
+                    catch(InterruptedException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                    catch(ExecutionException e)
+                    {
+                        throw new RuntimeException(e.getCause());
+                    }
             }
-
-            System.out.println();
         }
 
+        // Remember the winning mask as the original, and how hard it is.
+        workers.get(0).mask(round, round.best.get());
+        CellMask.copy(workers.get(0).visible, originalMask);
+        if(difficulty > 0)
+            this.difficulty = Math.max(0, workers.get(0).grader.grade(board, originalMask, difficulty).getHardestTier());
+
+        reset();
+
+        for(Worker worker : workers)
+            attempts += worker.record();
+        ATTEMPTS_PER_PUZZLE.record(attempts);
+        VISIBLE.record(getNumVisible());
+        NANOS.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Creates a board from a solution and a mask that were made before, such
+     * as ones read back from a Corpus. No search is done, so the mask is
+     * trusted to be solvable.
+     *
+     * @param solution the fully populated board.
+     * @param mask which cells are visible; it is copied.
+     * @param difficulty the tier of the hardest technique needed to solve
+     * the board, as getDifficulty() returned when it was made.
+     */
+    public MaskedBoard(Board solution, long[] mask, int difficulty)
+    {
+        this.board = solution;
+        this.geometry = solution.getGeometry();
+        this.difficulty = difficulty;
+        this.cellVisible = geometry.createMask();
+        this.originalMask = geometry.createMask();
+        CellMask.copy(mask, originalMask);
         reset();
-        System.out.println("There are " + numVisible + " cells showing.");
     }
 
     /**
@@ -180,12 +636,173 @@ public class MaskedBoard extends Board
      */
     public char getCellValue(int index)
     {
-        return cellVisible[index] ? board.getCellValue(index) : '\0';
+        return index >= 0 && index < geometry.getNumCells() && CellMask.isSet(cellVisible, index) ?
+               board.getCellValue(index) : '\0';
+    }
+
+    @Override
+    public Geometry getGeometry()
+    {
+        return geometry;
+    }
+
+    /**
+     * Generates the puzzle identified by a 64-bit ID. The same ID always
+     * gives the same puzzle, so a puzzle can be stored as just its ID.
+     *
+     * @param id the ID of the puzzle.
+     * @return the puzzle; its answer key is available from getSolution().
+     */
+    public static MaskedBoard fromId(long id)
+    {
+        return fromId(Geometry.STANDARD, id);
+    }
+
+    /**
+     * Generates the puzzle of a given geometry identified by a 64-bit ID.
+     *
+     * @param geometry the shape of the puzzle.
+     * @param id the ID of the puzzle.
+     * @return the puzzle; its answer key is available from getSolution().
+     */
+    public static MaskedBoard fromId(Geometry geometry, long id)
+    {
+        final long start = System.nanoTime();
+        SplittableRandom rand = new SplittableRandom(id);
+        RandomBoard board = new RandomBoard(geometry, rand.split());
+        MaskedBoard mboard = new MaskedBoard(board, rand.split());
+
+        PUZZLE_NANOS.record(System.nanoTime() - start);
+        return mboard;
+    }
+
+    /**
+     * Creates a mask over the given board by digging cells out of it instead
+     * of searching for one. Every cell starts out visible, and then the
+     * orbits of one of the masks are hidden one at a time, in random order,
+     * keeping each hidden only if the board can still be easily solved.
+     * Hiding more never makes a board easier, so an orbit put back would be
+     * needed at the end too: one pass gives a mask from which no orbit can be
+     * hidden, with one incremental solver call per orbit.
+     *
+     * Only naked singles are needed to solve the mask, so its difficulty is 0.
+     *
+     * @param board the board to put the mask over.
+     * @param rand the random number generator to use.
+     * @return the puzzle.
+     */
+    public static MaskedBoard dig(Board board, SplittableRandom rand)
+    {
+        final long start = System.nanoTime();
+        final Geometry geometry = board.getGeometry();
+        final MaskSet masks = masksOf(geometry);
+        final long[][] orbits = masks.orbits[rand.nextInt(masks.orbits.length)];
+        final long[] visible = geometry.createMask();
+        final int[] order = new int[orbits.length];
+        final Solver solver = new Solver(geometry);
+        MaskedBoard mboard;
+        int j, t;
+
+        for(int i = 0; i < geometry.getNumCells(); ++i)
+            CellMask.set(visible, i);
+        for(int i = 0; i < order.length; ++i)
+            order[i] = i;
+        for(int i = order.length - 1; i > 0; --i)
+        {
+            j = rand.nextInt(i + 1);
+            t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+
+        for(int i = 0; i < order.length; ++i)
+            if(solver.canStillSolve(board, visible, orbits[order[i]]))
+                for(int w = 0; w < visible.length; ++w)
+                    visible[w] &= ~orbits[order[i]][w];
+
+        mboard = new MaskedBoard(board, visible, 0);
+        DIG_CALLS.record(order.length);
+        DIG_VISIBLE.record(mboard.getNumVisible());
+        DIG_NANOS.record(System.nanoTime() - start);
+        return mboard;
+    }
+
+    /**
+     * Gets the fully populated board underneath the mask.
+     *
+     * @return the board.
+     */
+    public Board getSolution()
+    {
+        return board;
+    }
+
+    /**
+     * Creates a copy of this board whose solution is a PackedBoard, which
+     * takes a quarter of the memory of a RandomBoard. The copy shows the same
+     * cells as this board does now, and resets to the same mask.
+     *
+     * @return the copy, or this board if its solution is already packed, or
+     * isn't a standard board, which is all a PackedBoard can hold.
+     */
+    public MaskedBoard compact()
+    {
+        MaskedBoard copy;
+
+        if(board instanceof PackedBoard || geometry != Geometry.STANDARD)
+            return this;
+
+        copy = new MaskedBoard(new PackedBoard(board), originalMask, difficulty);
+        CellMask.copy(cellVisible, copy.cellVisible);
+        return copy;
+    }
+
+    /**
+     * Transforms the solution and the masks with a symmetry. The new puzzle
+     * looks different, but needs exactly the same techniques to solve, so
+     * nothing is searched or solved again.
+     *
+     * @param symmetry the symmetry to apply.
+     * @return the transformed puzzle, whose solution is a PackedBoard.
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    @Override
+    public MaskedBoard transform(Symmetry symmetry)
+    {
+        long[] mask = CellMask.create();
+        MaskedBoard copy;
+
+        Geometry.STANDARD.check(this);
+        symmetry.apply(originalMask, mask);
+        copy = new MaskedBoard(symmetry.apply(board), mask, difficulty);
+        symmetry.apply(cellVisible, copy.cellVisible);
+        return copy;
+    }
+
+    /**
+     * Copies which cells are visible into a cell mask.
+     *
+     * @param mask the mask to overwrite.
+     */
+    public void getMask(long[] mask)
+    {
+        CellMask.copy(cellVisible, mask);
+    }
+
+    /**
+     * Gets the tier of the hardest technique of the default Grader that is
+     * needed to solve the board.
+     *
+     * @return the difficulty; 0 means naked singles are enough.
+     */
+    public int getDifficulty()
+    {
+        return difficulty;
     }
 
     public int getNumVisible()
     {
-        return numVisible;
+        return CellMask.count(cellVisible);
     }
 
     /**
@@ -211,7 +828,7 @@ public class MaskedBoard extends Board
     public boolean reveal(int index, char guess)
     {
         // If the cell is already visible, then we're done.
-        if(cellVisible[index])
+        if(CellMask.isSet(cellVisible, index))
             return true;
 
         // If the guess isn't correct, don't change the mask.
@@ -219,8 +836,7 @@ public class MaskedBoard extends Board
             return false;
 
         // Otherwise, unmask it and increase visible count.
-        cellVisible[index] = true;
-        numVisible++;
+        CellMask.set(cellVisible, index);
         return true;
     }
 
@@ -229,9 +845,7 @@ public class MaskedBoard extends Board
      */
     public void reset()
     {
-        for(int i = 0; i < cellVisible.length; ++i)
-            cellVisible[i] = originalMask[i];
-        numVisible = originalNumVisible;
+        CellMask.copy(originalMask, cellVisible);
     }
 
     @Override
@@ -240,25 +854,27 @@ public class MaskedBoard extends Board
      */
     public String toString()
     {
-        StringBuilder sb = new StringBuilder(Board.NUM_CELLS * 2);
+        final int n = geometry.getBoxSize(), digits = geometry.getNumDigits();
+        final String line = new String(new char[digits + n + 1]).replace('\0', '-');
+        StringBuilder sb = new StringBuilder(geometry.getNumCells() * 2);
 
-        sb.append("---------------------\n");
+        sb.append(line).append('\n');
 
-        for(int i = 0; i < Board.NUM_CELLS; ++i)
+        for(int i = 0; i < geometry.getNumCells(); ++i)
         {
-            if(i % 64 == 0 && i != 0)
-                sb.append("|\n---------------------\n");
-            else if(i % 16 == 0 && i != 0)
+            if(i % (n * digits) == 0 && i != 0)
+                sb.append("|\n").append(line).append('\n');
+            else if(i % digits == 0 && i != 0)
                 sb.append("|\n");
-            if(i % 4 == 0)
+            if(i % n == 0)
                 sb.append('|');
-            if(cellVisible[i])
+            if(CellMask.isSet(cellVisible, i))
                 sb.append(getCellValue(i));
             else
                 sb.append(' ');
         }
 
-        sb.append("|\n---------------------");
+        sb.append("|\n").append(line);
 
         return sb.toString();
     }
@@ -0,0 +1,289 @@
+package hexadoku;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contains the counters and histograms that the generators and solvers
+ * record what they do in, by name. Recording is cheap enough for hot paths:
+ * counters are striped LongAdders, and histograms are arrays of buckets with
+ * a fixed relative precision, striped the same way, so nothing is locked and
+ * threads seldom contend.
+ *
+ * Recording can be turned off with the system property
+ * "hexadoku.metrics.off". A snapshot of everything recorded can be taken at
+ * any time, or printed every so often by reportEvery().
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public final class Metrics
+{
+    // Whether anything is recorded.
+    public static final boolean ENABLED = !Boolean.getBoolean("hexadoku.metrics.off");
+
+    // Every counter and histogram, sorted by name for reports.
+    private static final ConcurrentMap<String, Counter> counters =
+            new ConcurrentSkipListMap<String, Counter>();
+    private static final ConcurrentMap<String, Histogram> histograms =
+            new ConcurrentSkipListMap<String, Histogram>();
+
+    private Metrics()
+    {
+    }
+
+    /**
+     * A count of events.
+     */
+    public static final class Counter
+    {
+        private final LongAdder adder = new LongAdder();
+
+        public void add(long n)
+        {
+            if(ENABLED)
+                adder.add(n);
+        }
+
+        public void increment()
+        {
+            if(ENABLED)
+                adder.increment();
+        }
+
+        public long get()
+        {
+            return adder.sum();
+        }
+    }
+
+    /**
+     * A distribution of non-negative values. Values below SUB_BUCKETS are
+     * counted exactly; larger ones are counted in buckets whose width is a
+     * 1 / SUB_BUCKETS fraction of their lower bound, so any percentile is
+     * accurate to within about 6%.
+     *
+     * Like a LongAdder, a histogram is split into stripes, and each thread
+     * records into the stripe its ID picks, so threads recording at once
+     * seldom touch the same cache lines. A stripe is only made the first time
+     * a thread needs it, and reading adds up all of them.
+     */
+    public static final class Histogram
+    {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int NUM_BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+        // After the buckets, each stripe holds its count, sum, and max.
+        private static final int COUNT = NUM_BUCKETS, SUM = NUM_BUCKETS + 1, MAX = NUM_BUCKETS + 2;
+        // A power of two with room for every core and then some.
+        private static final int STRIPES =
+                Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1) << 1;
+
+        private final AtomicReferenceArray<AtomicLongArray> stripes =
+                new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+
+        private static int bucketOf(long value)
+        {
+            int shift;
+
+            if(value < SUB_BUCKETS)
+                return (int)value;
+
+            shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int)(value >>> shift) - SUB_BUCKETS;
+        }
+
+        private static long lowestOf(int bucket)
+        {
+            if(bucket < SUB_BUCKETS)
+                return bucket;
+
+            return (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << (bucket / SUB_BUCKETS - 1);
+        }
+
+        /**
+         * Gets the calling thread's stripe, making it if need be.
+         */
+        private AtomicLongArray stripe()
+        {
+            final int i = (int)((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+            AtomicLongArray stripe = stripes.get(i);
+
+            if(stripe == null && !stripes.compareAndSet(i, null, stripe = new AtomicLongArray(MAX + 1)))
+                stripe = stripes.get(i);
+
+            return stripe;
+        }
+
+        /**
+         * Adds up one slot of every stripe.
+         */
+        private long total(int slot)
+        {
+            AtomicLongArray stripe;
+            long total = 0;
+
+            for(int i = 0; i < STRIPES; ++i)
+                if((stripe = stripes.get(i)) != null)
+                    total += stripe.get(slot);
+
+            return total;
+        }
+
+        public void record(long value)
+        {
+            final AtomicLongArray stripe;
+            long current;
+
+            if(!ENABLED)
+                return;
+            if(value < 0)
+                value = 0;
+
+            stripe = stripe();
+            stripe.incrementAndGet(bucketOf(value));
+            stripe.incrementAndGet(COUNT);
+            stripe.addAndGet(SUM, value);
+            // Only threads sharing the stripe race for its max, so this
+            // seldom goes around more than once.
+            while(value > (current = stripe.get(MAX)))
+                if(stripe.compareAndSet(MAX, current, value))
+                    break;
+        }
+
+        public long getCount()
+        {
+            return total(COUNT);
+        }
+
+        public double getMean()
+        {
+            long n = total(COUNT);
+
+            return n == 0 ? 0 : (double)total(SUM) / n;
+        }
+
+        public long getMax()
+        {
+            AtomicLongArray stripe;
+            long max = 0;
+
+            for(int i = 0; i < STRIPES; ++i)
+                if((stripe = stripes.get(i)) != null)
+                    max = Math.max(max, stripe.get(MAX));
+
+            return max;
+        }
+
+        /**
+         * Gets a percentile of the values recorded.
+         *
+         * @param p the percentile, from 0 to 100.
+         * @return the lower bound of the bucket holding the percentile.
+         */
+        public long getPercentile(double p)
+        {
+            long target = (long)Math.ceil(getCount() * p / 100), seen = 0;
+
+            for(int i = 0; i < NUM_BUCKETS; ++i)
+                if((seen += total(i)) >= target && seen > 0)
+                    return lowestOf(i);
+
+            return 0;
+        }
+    }
+
+    /**
+     * Gets a counter by name, creating it the first time.
+     *
+     * @param name the name of the counter.
+     * @return the counter.
+     */
+    public static Counter counter(String name)
+    {
+        Counter counter = counters.get(name), existing;
+
+        if(counter == null && (existing = counters.putIfAbsent(name, counter = new Counter())) != null)
+            counter = existing;
+
+        return counter;
+    }
+
+    /**
+     * Gets a histogram by name, creating it the first time.
+     *
+     * @param name the name of the histogram.
+     * @return the histogram.
+     */
+    public static Histogram histogram(String name)
+    {
+        Histogram histogram = histograms.get(name), existing;
+
+        if(histogram == null && (existing = histograms.putIfAbsent(name, histogram = new Histogram())) != null)
+            histogram = existing;
+
+        return histogram;
+    }
+
+    /**
+     * Formats everything recorded so far, one counter or histogram per line.
+     *
+     * @return the snapshot.
+     */
+    public static String snapshot()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for(Map.Entry<String, Counter> e : counters.entrySet())
+            sb.append(String.format("%-28s %d%n", e.getKey(), e.getValue().get()));
+
+        for(Map.Entry<String, Histogram> e : histograms.entrySet())
+        {
+            Histogram h = e.getValue();
+
+            if(h.getCount() == 0)
+                continue;
+            sb.append(String.format("%-28s n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d%n",
+                                    e.getKey(), h.getCount(), h.getMean(), h.getPercentile(50),
+                                    h.getPercentile(90), h.getPercentile(99), h.getMax()));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Prints a snapshot to a stream every so often, from a daemon thread.
+     *
+     * @param period the time between snapshots.
+     * @param unit the unit of period.
+     * @param out the stream to print to.
+     * @return the executor printing them; shut it down to stop.
+     */
+    public static ScheduledExecutorService reportEvery(long period, TimeUnit unit, final PrintStream out)
+    {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "Metrics reporter");
+
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        executor.scheduleAtFixedRate(new Runnable()
+        {
+            public void run()
+            {
+                out.print(snapshot());
+                out.flush();
+            }
+        }, period, period, unit);
+
+        return executor;
+    }
+}
@@ -0,0 +1,111 @@
+package hexadoku;
+
+import java.util.Arrays;
+
+/**
+ * Represents a fully populated board that can't be changed, stored in as
+ * little memory as practical: four bits per cell, sixteen cells to a long.
+ * Bits 4j to 4j + 3 of word (i / 16) hold the digit of cell i, where j is
+ * i % 16.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public final class PackedBoard extends Board
+{
+    // The number of cells stored in each word.
+    private static final int CELLS_PER_WORD = 64 / 4;
+    private static final char[] digits =
+    {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+
+    private final long[] words = new long[NUM_CELLS / CELLS_PER_WORD];
+
+    /**
+     * Packs a copy of a fully populated board.
+     *
+     * @param board the board to copy.
+     * @throws IllegalArgumentException if a cell of the board is empty, or if
+     * the board isn't a standard one.
+     */
+    public PackedBoard(Board board)
+    {
+        int digit;
+
+        Geometry.STANDARD.check(board);
+
+        for(int i = 0; i < NUM_CELLS; ++i)
+        {
+            if((digit = digitCharToInt(board.getCellValue(i))) == -1)
+                throw new IllegalArgumentException("board is not fully populated");
+            words[i / CELLS_PER_WORD] |= (long)digit << ((i % CELLS_PER_WORD) * 4);
+        }
+    }
+
+    /**
+     * Packs a board, unless it is packed already.
+     *
+     * @param board a fully populated board.
+     * @return the board itself if it is a PackedBoard, else a packed copy.
+     */
+    public static PackedBoard of(Board board)
+    {
+        return board instanceof PackedBoard ? (PackedBoard)board : new PackedBoard(board);
+    }
+
+    /**
+     * Gets a cell's digit.
+     *
+     * @param index the index of the cell.
+     * @return the digit, from 0 to NUM_DIGITS - 1.
+     */
+    public int getDigit(int index)
+    {
+        return (int)(words[index >>> 4] >>> ((index & 15) << 2)) & 0xF;
+    }
+
+    /**
+     * Gets a cell's value by index.
+     *
+     * @param index the index of the cell to use.
+     * @return either the cell's value, or '\0' if the index is invalid.
+     */
+    public char getCellValue(int index)
+    {
+        return (index & ~(NUM_CELLS - 1)) == 0 ? digits[getDigit(index)] : '\0';
+    }
+
+    /**
+     * Tests whether every zone holds every digit.
+     *
+     * @return true if the board is a valid solution.
+     */
+    public boolean isValid()
+    {
+        int used;
+
+        for(int zone = 0; zone < NUM_ZONES; ++zone)
+        {
+            used = 0;
+            for(int i = 0; i < NUM_DIGITS; ++i)
+                used |= 1 << getDigit(Geometry.STANDARD.zoneCell(zone, i));
+            if(used != CandidateGrid.ALL_DIGITS)
+                return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof PackedBoard && Arrays.equals(words, ((PackedBoard)o).words);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(words);
+    }
+}
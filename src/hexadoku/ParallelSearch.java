@@ -0,0 +1,525 @@
+package hexadoku;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Searches a board's tree of fillings on every core of a fork/join pool,
+ * either to count its solutions, like ExactCoverSolver, or to fill an empty
+ * board at random, like RandomBoard.
+ *
+ * The search steps are ExactCoverSolver's: place a digit a zone can only put
+ * in one cell, or else branch on the empty cell with the fewest candidates.
+ * Each task is a subtree, named by the placements that lead to it from the
+ * given cells. A worker keeps its own board and an undo stack of the
+ * placements it has made, so it starts a task by undoing back to the givens
+ * and replaying the task's placements rather than copying a board. While a
+ * worker's queue runs low, it hands the branches of the node it has reached
+ * to new tasks for idle workers to steal, instead of searching them itself;
+ * otherwise it searches depth first, as the single-threaded solvers do.
+ * Solutions are counted in one atomic counter, and every worker stops as
+ * soon as the limit is reached.
+ *
+ * Only standard boards can be searched. An instance runs one search at a
+ * time, and is not thread-safe.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class ParallelSearch
+{
+    // The zone tables of the standard board, the only one solved here.
+    private static final Geometry STANDARD = Geometry.STANDARD;
+
+    // Branches are handed to new tasks only while there are no more than
+    // this many tasks queued beyond what idle workers could take, and only
+    // while there are more than this many empty cells, below which a
+    // subtree is too small to be worth a task.
+    private static final int MAX_SURPLUS = 2;
+    private static final int MIN_SPLIT_EMPTY = 32;
+    // The number of nodes a worker visits between adding them to the total.
+    private static final int FLUSH_NODES = 1024;
+
+    private static final Metrics.Counter NODES = Metrics.counter("search.nodes");
+    private static final Metrics.Counter TASKS = Metrics.counter("search.tasks");
+    private static final Metrics.Histogram NANOS = Metrics.histogram("search.nanos");
+
+    // Each thread's board, which any search can use when it runs there.
+    private static final ThreadLocal<Worker> WORKERS = new ThreadLocal<Worker>()
+    {
+        @Override
+        protected Worker initialValue()
+        {
+            return new Worker();
+        }
+    };
+
+    /**
+     * The state shared by every task of one search.
+     */
+    private static final class Run
+    {
+        // The digit given in each cell, or -1 if the cell is empty.
+        final int[] givens;
+        final long limit, budget;
+        // Whether branches are tried in a random order.
+        final boolean random;
+        final AtomicLong solutions = new AtomicLong();
+        final AtomicLong nodes = new AtomicLong();
+        final AtomicLong tasks = new AtomicLong();
+        // The first solution found.
+        final int[] solution = new int[Board.NUM_CELLS];
+        // Set once the limit or the budget is reached.
+        volatile boolean stopped;
+
+        Run(int[] givens, long limit, long budget, boolean random)
+        {
+            this.givens = givens;
+            this.limit = limit;
+            this.budget = budget;
+            this.random = random;
+        }
+    }
+
+    /**
+     * A subtree of a search: the placements that lead to it from the givens,
+     * each one a cell index times 16 plus a digit.
+     */
+    @SuppressWarnings("serial")
+    private static final class Task extends CountedCompleter<Void>
+    {
+        final Run run;
+        final int[] path;
+        final SplittableRandom rand;
+
+        Task(Task parent, Run run, int[] path, SplittableRandom rand)
+        {
+            super(parent);
+            this.run = run;
+            this.path = path;
+            this.rand = rand;
+        }
+
+        @Override
+        public void compute()
+        {
+            // Tasks never wait on each other, so a worker can't be in the
+            // middle of one task when it starts another.
+            WORKERS.get().search(this);
+            tryComplete();
+        }
+    }
+
+    /**
+     * A thread's board and undo stack.
+     */
+    private static final class Worker
+    {
+        // The digit in each cell, or -1 if the cell is empty.
+        final int[] cells = new int[Board.NUM_CELLS];
+        // The digits used by each zone.
+        final int[] zoneUsed = new int[Board.NUM_ZONES];
+        // The candidates of each cell, as computed by the current step.
+        final int[] candidates = new int[Board.NUM_CELLS];
+        // The cells placed since the givens, in order, so they can be undone.
+        final int[] placed = new int[Board.NUM_CELLS];
+        int numPlaced, numFilled;
+        // The search whose givens are on the board, the task being searched,
+        // and the nodes visited that aren't in the total yet.
+        Run run;
+        Task task;
+        long nodes;
+
+        private void place(int index, int digit)
+        {
+            final int bit = 1 << digit;
+
+            zoneUsed[STANDARD.cellZone(index, 0)] |= bit;
+            zoneUsed[STANDARD.cellZone(index, 1)] |= bit;
+            zoneUsed[STANDARD.cellZone(index, 2)] |= bit;
+            cells[index] = digit;
+            placed[numPlaced++] = index;
+            numFilled++;
+        }
+
+        /**
+         * Undoes the last placement.
+         */
+        private void unplace()
+        {
+            final int index = placed[--numPlaced], bit = 1 << cells[index];
+
+            zoneUsed[STANDARD.cellZone(index, 0)] &= ~bit;
+            zoneUsed[STANDARD.cellZone(index, 1)] &= ~bit;
+            zoneUsed[STANDARD.cellZone(index, 2)] &= ~bit;
+            cells[index] = -1;
+            numFilled--;
+        }
+
+        /**
+         * Searches a task's subtree, starting from the givens of its search
+         * and replaying its path.
+         */
+        void search(Task task)
+        {
+            if(run != task.run)
+            {
+                run = task.run;
+                numPlaced = numFilled = 0;
+                Arrays.fill(zoneUsed, 0);
+                for(int i = 0; i < Board.NUM_CELLS; ++i)
+                    if((cells[i] = run.givens[i]) != -1)
+                    {
+                        zoneUsed[STANDARD.cellZone(i, 0)] |= 1 << cells[i];
+                        zoneUsed[STANDARD.cellZone(i, 1)] |= 1 << cells[i];
+                        zoneUsed[STANDARD.cellZone(i, 2)] |= 1 << cells[i];
+                        numFilled++;
+                    }
+            }
+            else
+                while(numPlaced > 0)
+                    unplace();
+
+            for(int step : task.path)
+                place(step >>> 4, step & 15);
+
+            this.task = task;
+            run.tasks.incrementAndGet();
+            if(!run.stopped)
+                search();
+            flush();
+            this.task = null;
+        }
+
+        /**
+         * Adds the nodes visited to the total, and stops the search if it
+         * has gone over budget.
+         */
+        private void flush()
+        {
+            if(run.nodes.addAndGet(nodes) > run.budget)
+                run.stopped = true;
+            nodes = 0;
+        }
+
+        private void solved()
+        {
+            final long n = run.solutions.incrementAndGet();
+
+            if(n == 1)
+                System.arraycopy(cells, 0, run.solution, 0, Board.NUM_CELLS);
+            if(n >= run.limit)
+                run.stopped = true;
+        }
+
+        /**
+         * Searches for solutions from the current state, stopping once the
+         * search is stopped. The state is the same afterwards as before.
+         */
+        private void search()
+        {
+            int i, zone, index, count, once, twice, missing, single, bit, skip;
+            int best = -1, bestCount = Board.NUM_DIGITS + 1, bestCandidates;
+
+            if(++nodes == FLUSH_NODES)
+                flush();
+            if(run.stopped)
+                return;
+
+            if(numFilled == Board.NUM_CELLS)
+            {
+                solved();
+                return;
+            }
+
+            // Find the empty cell with the fewest candidates; see
+            // ExactCoverSolver.search().
+            for(index = 0; index < Board.NUM_CELLS; ++index)
+            {
+                if(cells[index] != -1)
+                {
+                    candidates[index] = 0;
+                    continue;
+                }
+
+                candidates[index] = ~(zoneUsed[STANDARD.cellZone(index, 0)] |
+                                      zoneUsed[STANDARD.cellZone(index, 1)] |
+                                      zoneUsed[STANDARD.cellZone(index, 2)]) & CandidateGrid.ALL_DIGITS;
+                count = Integer.bitCount(candidates[index]);
+                if(count < bestCount)
+                {
+                    if(count == 0)
+                        return;
+                    best = index;
+                    bestCount = count;
+                }
+            }
+
+            if(bestCount > 1)
+                for(zone = 0; zone < Board.NUM_ZONES; ++zone)
+                {
+                    once = twice = 0;
+                    for(i = 0; i < Board.NUM_DIGITS; ++i)
+                    {
+                        final int c = candidates[STANDARD.zoneCell(zone, i)];
+
+                        twice |= once & c;
+                        once |= c;
+                    }
+
+                    missing = ~zoneUsed[zone] & CandidateGrid.ALL_DIGITS;
+                    if((missing & ~once) != 0)
+                        return;
+                    if((single = once & ~twice) == 0)
+                        continue;
+
+                    single = Integer.lowestOneBit(single);
+                    for(i = 0; i < Board.NUM_DIGITS; ++i)
+                        if((candidates[index = STANDARD.zoneCell(zone, i)] & single) != 0)
+                            break;
+                    place(index, Integer.numberOfTrailingZeros(single));
+                    search();
+                    unplace();
+                    return;
+                }
+
+            // Hand the branches to other workers if they are running out of
+            // work, or else try them here.
+            bestCandidates = candidates[best];
+            if(Board.NUM_CELLS - numFilled > MIN_SPLIT_EMPTY &&
+               ForkJoinTask.getSurplusQueuedTaskCount() <= MAX_SURPLUS)
+            {
+                split(best, bestCandidates);
+                return;
+            }
+
+            while(bestCandidates != 0 && !run.stopped)
+            {
+                bit = bestCandidates;
+                if(run.random)
+                    for(skip = task.rand.nextInt(Integer.bitCount(bestCandidates)); skip > 0; --skip)
+                        bit &= bit - 1;
+                bit = Integer.lowestOneBit(bit);
+                bestCandidates &= ~bit;
+
+                place(best, Integer.numberOfTrailingZeros(bit));
+                search();
+                unplace();
+            }
+        }
+
+        /**
+         * Forks a task for each candidate of a cell.
+         */
+        private void split(int index, int candidates)
+        {
+            final int[] path = new int[numPlaced + 1];
+            int digit;
+
+            for(int i = 0; i < numPlaced; ++i)
+                path[i] = placed[i] << 4 | cells[placed[i]];
+            for(; candidates != 0; candidates &= candidates - 1)
+            {
+                digit = Integer.numberOfTrailingZeros(candidates);
+                path[numPlaced] = index << 4 | digit;
+                task.addToPendingCount(1);
+                new Task(task, run, path.clone(), run.random ? task.rand.split() : null).fork();
+            }
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private Run last;
+
+    /**
+     * Creates a search that runs on the common pool.
+     */
+    public ParallelSearch()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a search that runs on the given pool.
+     *
+     * @param pool the pool whose workers do the searching.
+     */
+    public ParallelSearch(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Runs a search to the end, or until it is stopped.
+     */
+    private Run run(Run run, SplittableRandom rand)
+    {
+        final long start = System.nanoTime();
+
+        last = run;
+        if(run.limit > 0)
+            pool.invoke(new Task(null, run, new int[0], rand));
+
+        NODES.add(run.nodes.get());
+        TASKS.add(run.tasks.get());
+        NANOS.record(System.nanoTime() - start);
+        return run;
+    }
+
+    /**
+     * Checks that no two givens conflict.
+     *
+     * @return false if the givens break a constraint.
+     */
+    private static boolean isConsistent(int[] givens)
+    {
+        final int[] zoneUsed = new int[Board.NUM_ZONES];
+        int bit;
+
+        for(int i = 0; i < Board.NUM_CELLS; ++i)
+        {
+            if(givens[i] == -1)
+                continue;
+
+            bit = 1 << givens[i];
+            for(int kind = 0; kind < Board.ZONES_PER_CELL; ++kind)
+            {
+                if((zoneUsed[STANDARD.cellZone(i, kind)] & bit) != 0)
+                    return false;
+                zoneUsed[STANDARD.cellZone(i, kind)] |= bit;
+            }
+        }
+
+        return true;
+    }
+
+    private long count(int[] givens, long limit)
+    {
+        if(!isConsistent(givens))
+        {
+            last = new Run(givens, 0, 0, false);
+            return 0;
+        }
+
+        return Math.min(run(new Run(givens, limit, Long.MAX_VALUE, false), null).solutions.get(), limit);
+    }
+
+    /**
+     * Counts the solutions of a board, up to a limit. The visible cells of
+     * the board are taken as given, and the rest are filled in.
+     *
+     * @param board the board to solve.
+     * @param limit the number of solutions at which to stop searching.
+     * @return the number of solutions, or the limit if there are more.
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    public long countSolutions(Board board, long limit)
+    {
+        final int[] givens = new int[Board.NUM_CELLS];
+
+        Geometry.STANDARD.check(board);
+        for(int i = 0; i < Board.NUM_CELLS; ++i)
+            givens[i] = Board.digitCharToInt(board.getCellValue(i));
+
+        return count(givens, limit);
+    }
+
+    /**
+     * Counts the solutions of a board if only some of its cells were
+     * visible. Neither argument is changed.
+     *
+     * @param solution a fully populated board.
+     * @param visible a cell mask of which cells of the board are visible.
+     * @param limit the number of solutions at which to stop searching.
+     * @return the number of solutions, or the limit if there are more.
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    public long countSolutions(Board solution, long[] visible, long limit)
+    {
+        final int[] givens = new int[Board.NUM_CELLS];
+
+        Geometry.STANDARD.check(solution);
+        for(int i = 0; i < Board.NUM_CELLS; ++i)
+            givens[i] = CellMask.isSet(visible, i) ?
+                        Board.digitCharToInt(solution.getCellValue(i)) : -1;
+
+        return count(givens, limit);
+    }
+
+    /**
+     * Tests whether a board has exactly one solution.
+     *
+     * @param board the board to solve.
+     * @return true if the board has one solution, false if none or several.
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    public boolean hasUniqueSolution(Board board)
+    {
+        return countSolutions(board, ExactCoverSolver.DEFAULT_LIMIT) == 1;
+    }
+
+    /**
+     * Fills an empty board at random. Which filling is found depends on which
+     * worker gets there first, so it isn't the same from run to run even with
+     * the same generator.
+     *
+     * @param rand the random number generator to draw from; it is only used
+     * by the calling thread, and split for the workers.
+     * @param budget the most nodes to visit, across all workers, before
+     * giving up.
+     * @return true if the board was filled; the digits are available from
+     * getSolutionDigit().
+     */
+    public boolean fill(SplittableRandom rand, long budget)
+    {
+        final int[] givens = new int[Board.NUM_CELLS];
+
+        Arrays.fill(givens, -1);
+        return run(new Run(givens, 1, budget, true), rand.split()).solutions.get() > 0;
+    }
+
+    /**
+     * Gets a digit of the first solution found by the last search.
+     *
+     * @param index the index of the cell.
+     * @return the digit, if a solution was found.
+     */
+    public int getSolutionDigit(int index)
+    {
+        return last.solution[index];
+    }
+
+    /**
+     * Gets the number of search steps taken by the last search, across all
+     * workers.
+     *
+     * @return the number of nodes of the search tree visited.
+     */
+    public long getNodes()
+    {
+        return last.nodes.get();
+    }
+
+    /**
+     * Gets the number of tasks the last search was split into.
+     *
+     * @return the number of tasks.
+     */
+    public long getTasks()
+    {
+        return last.tasks.get();
+    }
+
+    /**
+     * Gets the number of workers of the pool the search runs on.
+     *
+     * @return the pool's parallelism.
+     */
+    public int getParallelism()
+    {
+        return pool.getParallelism();
+    }
+}
@@ -0,0 +1,116 @@
+package hexadoku;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes many puzzles and their answer keys into HTML documents, a fixed
+ * number of puzzles per document. Puzzles go into "<prefix>-G<n>.html" and
+ * their answers into "<prefix>-K<n>.html", where n counts the documents from
+ * 1. Each board is rendered into a buffer and written with a single call.
+ *
+ * The documents are closed, and the last one finished, by close(), which must
+ * always be called. Instances are not thread-safe.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class PuzzleBook implements Closeable
+{
+    private final String prefix;
+    private final int puzzlesPerFile;
+    private final HtmlRenderer renderer = new HtmlRenderer();
+    // The documents being written, or null between documents.
+    private OutputStream puzzles, keys;
+    // The number of documents started, and of puzzles in the current one.
+    private int numFiles, numInFile;
+
+    /**
+     * Creates a book.
+     *
+     * @param prefix the start of the names of the files to write.
+     * @param puzzlesPerFile the most puzzles to put in one document.
+     */
+    public PuzzleBook(String prefix, int puzzlesPerFile)
+    {
+        if(puzzlesPerFile < 1)
+            throw new IllegalArgumentException("puzzlesPerFile must be positive");
+
+        this.prefix = prefix;
+        this.puzzlesPerFile = puzzlesPerFile;
+    }
+
+    private void openFiles() throws IOException
+    {
+        numFiles++;
+        numInFile = 0;
+
+        puzzles = new FileOutputStream(prefix + "-G" + numFiles + ".html");
+        try
+        {
+            keys = new FileOutputStream(prefix + "-K" + numFiles + ".html");
+        }
+        catch(IOException e)
+        {
+            puzzles.close();
+            puzzles = null;
+            throw e;
+        }
+
+        renderer.clear().beginDocument().writeTo(puzzles);
+        renderer.clear().beginDocument().writeTo(keys);
+    }
+
+    private void closeFiles() throws IOException
+    {
+        try
+        {
+            renderer.clear().endDocument().writeTo(puzzles);
+            renderer.clear().endDocument().writeTo(keys);
+        }
+        finally
+        {
+            try
+            {
+                puzzles.close();
+            }
+            finally
+            {
+                puzzles = null;
+                keys.close();
+                keys = null;
+            }
+        }
+    }
+
+    /**
+     * Adds a puzzle and its answer key to the book.
+     *
+     * @param mboard the puzzle.
+     * @param title the title of the puzzle, such as its ID.
+     * @throws IOException if writing fails.
+     */
+    public void add(MaskedBoard mboard, String title) throws IOException
+    {
+        if(puzzles == null)
+            openFiles();
+
+        renderer.clear().appendBoard(mboard, mboard.getNumVisible(), title).writeTo(puzzles);
+        renderer.clear().appendBoard(mboard.getSolution(), mboard.getGeometry().getNumCells(), title).writeTo(keys);
+
+        if(++numInFile == puzzlesPerFile)
+            closeFiles();
+    }
+
+    /**
+     * Finishes and closes the current documents, if any.
+     *
+     * @throws IOException if writing fails.
+     */
+    public void close() throws IOException
+    {
+        if(puzzles != null)
+            closeFiles();
+    }
+}
@@ -0,0 +1,462 @@
+package hexadoku;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a stock of ready puzzles, so that handing one out doesn't have to
+ * wait for a board to be generated and masked. There is a bucket of puzzles
+ * for each difficulty, from 0 up to the number of difficulties less one.
+ *
+ * Background workers refill a bucket once it falls below its low-water mark,
+ * until it is full again. Each board they generate is multiplied into
+ * several puzzles with random symmetries, which costs next to nothing. If a
+ * bucket runs dry anyway, take() makes another variant of the last puzzle
+ * generated for it rather than wait. Puzzles that sit in the pool longer
+ * than the maximum age, if one is set, are evicted.
+ *
+ * Pools are safe to use from many threads at once. The workers are daemon
+ * threads, and are stopped by close(). If one of them fails, poll(), take(),
+ * and close() throw what it threw, wrapped in an IllegalStateException.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class PuzzlePool implements Closeable
+{
+    // How long an idle worker waits before checking the buckets again.
+    private static final long IDLE_MILLIS = 100;
+
+    // A puzzle in a bucket, with when it was added.
+    private static class Entry
+    {
+        final MaskedBoard mboard;
+        final long created;
+
+        Entry(MaskedBoard mboard)
+        {
+            this.mboard = mboard;
+            this.created = System.nanoTime();
+        }
+    }
+
+    // The puzzles of one difficulty.
+    private static class Bucket
+    {
+        final BlockingQueue<Entry> entries;
+        // The last puzzle generated, which is multiplied if the bucket runs dry.
+        volatile MaskedBoard parent;
+        // When the bucket fell below the low-water mark, or -1 if it is not
+        // being refilled.
+        final AtomicLong refillStart = new AtomicLong(-1);
+
+        Bucket(int capacity)
+        {
+            entries = new ArrayBlockingQueue<Entry>(capacity);
+        }
+    }
+
+    private final Bucket[] buckets;
+    private final int capacity, lowWater, numWorkers;
+    private final SplittableRandom seeds;
+    private final Object signal = new Object();
+    private ExecutorService workers;
+    // The workers' futures, which hold the exception of any that failed, or
+    // null if the pool isn't running.
+    private volatile List<Future<Void>> running;
+    private volatile int variantsPerPuzzle = 16;
+    private volatile long maxAgeNanos;
+
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+    private final AtomicLong generated = new AtomicLong(), evictions = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong(), refillNanos = new AtomicLong();
+    private final AtomicLong maxRefillNanos = new AtomicLong();
+
+    /**
+     * A snapshot of how the pool has done since it was created.
+     */
+    public static class Stats
+    {
+        // Puzzles handed out from the stock, and made on demand instead.
+        public final long hits, misses;
+        // Boards generated and masked by the workers, and puzzles evicted.
+        public final long generated, evictions;
+        // Refills finished, and their mean and longest times in milliseconds.
+        public final long refills;
+        public final double meanRefillMillis, maxRefillMillis;
+        // The number of puzzles in each bucket.
+        public final int[] depths;
+
+        Stats(PuzzlePool pool)
+        {
+            hits = pool.hits.get();
+            misses = pool.misses.get();
+            generated = pool.generated.get();
+            evictions = pool.evictions.get();
+            refills = pool.refills.get();
+            meanRefillMillis = refills == 0 ? 0 : pool.refillNanos.get() / 1e6 / refills;
+            maxRefillMillis = pool.maxRefillNanos.get() / 1e6;
+            depths = new int[pool.buckets.length];
+            for(int i = 0; i < depths.length; ++i)
+                depths[i] = pool.buckets[i].entries.size();
+        }
+
+        public double hitRate()
+        {
+            return hits + misses == 0 ? 0 : (double)hits / (hits + misses);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("hits=%d misses=%d hitRate=%.3f generated=%d evictions=%d " +
+                                 "refills=%d meanRefillMs=%.1f maxRefillMs=%.1f depths=%s",
+                                 hits, misses, hitRate(), generated, evictions, refills,
+                                 meanRefillMillis, maxRefillMillis,
+                                 Arrays.toString(depths));
+        }
+    }
+
+    /**
+     * Creates a pool. Nothing is generated until start() is called.
+     *
+     * @param numDifficulties the number of buckets, one for each difficulty
+     * from 0 up; see MaskedBoard.getDifficulty().
+     * @param capacity the most puzzles each bucket holds.
+     * @param lowWater the number of puzzles below which a bucket is refilled.
+     * @param numWorkers the number of threads that generate puzzles.
+     * @param seed the seed of the random numbers the workers use.
+     */
+    public PuzzlePool(int numDifficulties, int capacity, int lowWater, int numWorkers, long seed)
+    {
+        if(numDifficulties < 1 || capacity < 1 || lowWater < 0 || lowWater > capacity || numWorkers < 1)
+            throw new IllegalArgumentException("invalid pool configuration");
+
+        this.buckets = new Bucket[numDifficulties];
+        this.capacity = capacity;
+        this.lowWater = lowWater;
+        this.numWorkers = numWorkers;
+        this.seeds = new SplittableRandom(seed);
+        for(int i = 0; i < numDifficulties; ++i)
+            buckets[i] = new Bucket(capacity);
+    }
+
+    /**
+     * Creates a pool of puzzles that naked singles are enough to solve, with
+     * a worker for every core.
+     *
+     * @param capacity the most puzzles to hold.
+     * @param lowWater the number of puzzles below which the pool is refilled.
+     */
+    public PuzzlePool(int capacity, int lowWater)
+    {
+        this(1, capacity, lowWater, Runtime.getRuntime().availableProcessors(),
+             new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Sets how many puzzles are made from each board the workers generate:
+     * the board's own, and variants of it made with random symmetries.
+     *
+     * @param variantsPerPuzzle the number of puzzles per board, at least 1.
+     */
+    public void setVariantsPerPuzzle(int variantsPerPuzzle)
+    {
+        this.variantsPerPuzzle = Math.max(1, variantsPerPuzzle);
+    }
+
+    /**
+     * Sets how long a puzzle may stay in the pool before it is evicted.
+     *
+     * @param maxAge the longest time, or 0 to keep puzzles forever.
+     * @param unit the unit of maxAge.
+     */
+    public void setMaxAge(long maxAge, TimeUnit unit)
+    {
+        this.maxAgeNanos = unit.toNanos(maxAge);
+    }
+
+    /**
+     * Starts the workers, which then fill every bucket.
+     */
+    public synchronized void start()
+    {
+        if(workers != null)
+            return;
+
+        workers = Executors.newFixedThreadPool(numWorkers, new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "PuzzlePool worker");
+
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        for(Bucket bucket : buckets)
+            bucket.refillStart.compareAndSet(-1, System.nanoTime());
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(numWorkers);
+        for(int i = 0; i < numWorkers; ++i)
+        {
+            final SplittableRandom rand = seeds.split();
+
+            futures.add(workers.submit(new Callable<Void>()
+            {
+                public Void call() throws InterruptedException
+                {
+                    work(rand);
+                    return null;
+                }
+            }));
+        }
+        running = futures;
+    }
+
+    /**
+     * Stops the workers. The puzzles in the pool can still be taken.
+     *
+     * @throws IllegalStateException if a worker had failed.
+     */
+    public synchronized void close()
+    {
+        if(workers == null)
+            return;
+
+        workers.shutdownNow();
+        try
+        {
+            checkWorkers();
+        }
+        finally
+        {
+            running = null;
+        }
+    }
+
+    /**
+     * Rethrows the exception of any worker that has failed. Workers stopped
+     * by close() haven't failed.
+     *
+     * @throws IllegalStateException if a worker failed.
+     */
+    private void checkWorkers()
+    {
+        final List<Future<Void>> futures = running;
+
+        if(futures == null)
+            return;
+
+        for(Future<Void> future : futures)
+            if(future.isDone() && !future.isCancelled())
+                try
+                {
+                    future.get();
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                catch(ExecutionException e)
+                {
+                    if(!(e.getCause() instanceof InterruptedException))
+                        throw new IllegalStateException("a puzzle pool worker failed", e.getCause());
+                }
+    }
+
+    private boolean expired(Entry entry, long now)
+    {
+        return maxAgeNanos > 0 && now - entry.created > maxAgeNanos;
+    }
+
+    /**
+     * Evicts the puzzles at the front of a bucket that are too old.
+     */
+    private void evict(Bucket bucket)
+    {
+        final long now = System.nanoTime();
+        Entry entry;
+
+        while((entry = bucket.entries.peek()) != null && expired(entry, now))
+            if(bucket.entries.remove(entry))
+                evictions.incrementAndGet();
+    }
+
+    /**
+     * Notes that a bucket may have fallen below its low-water mark, and wakes
+     * the workers if it has.
+     */
+    private void checkLowWater(Bucket bucket)
+    {
+        if(bucket.entries.size() < lowWater &&
+           bucket.refillStart.compareAndSet(-1, System.nanoTime()))
+            synchronized(signal)
+            {
+                signal.notifyAll();
+            }
+    }
+
+    /**
+     * Notes that a bucket being refilled is full again.
+     */
+    private void checkFull(Bucket bucket)
+    {
+        long start = bucket.refillStart.get(), lag, max;
+
+        if(start == -1 || bucket.entries.remainingCapacity() > 0 ||
+           !bucket.refillStart.compareAndSet(start, -1))
+            return;
+
+        lag = System.nanoTime() - start;
+        refills.incrementAndGet();
+        refillNanos.addAndGet(lag);
+        while(lag > (max = maxRefillNanos.get()))
+            if(maxRefillNanos.compareAndSet(max, lag))
+                break;
+    }
+
+    /**
+     * Finds the bucket being refilled that has the fewest puzzles.
+     *
+     * @return the index of the bucket, or -1 if none are being refilled.
+     */
+    private int neediest()
+    {
+        int best = -1, bestSize = capacity, size;
+
+        for(int i = 0; i < buckets.length; ++i)
+        {
+            evict(buckets[i]);
+            checkLowWater(buckets[i]);
+            checkFull(buckets[i]);
+            if(buckets[i].refillStart.get() != -1 &&
+               (size = buckets[i].entries.size()) < bestSize)
+            {
+                best = i;
+                bestSize = size;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Generates puzzles for the buckets that need them, until interrupted.
+     */
+    private void work(SplittableRandom rand) throws InterruptedException
+    {
+        int difficulty;
+        MaskedBoard mboard;
+        Bucket bucket;
+
+        while(!Thread.currentThread().isInterrupted())
+        {
+            if((difficulty = neediest()) == -1)
+            {
+                synchronized(signal)
+                {
+                    signal.wait(IDLE_MILLIS);
+                }
+                continue;
+            }
+
+            // The other workers keep the cores busy, so each searches alone.
+            mboard = new MaskedBoard(new RandomBoard(rand.split()), rand.split(), 1, difficulty).compact();
+            generated.incrementAndGet();
+
+            // An easier mask may have been settled for; it goes where it fits.
+            bucket = buckets[mboard.getDifficulty()];
+            bucket.parent = mboard;
+            if(bucket.entries.offer(new Entry(mboard)))
+                for(int i = 1; i < variantsPerPuzzle; ++i)
+                    if(!bucket.entries.offer(new Entry(mboard.transform(Symmetry.random(rand)))))
+                        break;
+            checkFull(bucket);
+        }
+    }
+
+    private Bucket bucket(int difficulty)
+    {
+        if(difficulty < 0 || difficulty >= buckets.length)
+            throw new IllegalArgumentException("no puzzles of difficulty " + difficulty);
+
+        return buckets[difficulty];
+    }
+
+    /**
+     * Takes a puzzle out of the pool without waiting.
+     *
+     * @param difficulty the difficulty of the puzzle.
+     * @return the puzzle, or null if the bucket has never had one.
+     * @throws IllegalStateException if a worker failed.
+     */
+    public MaskedBoard poll(int difficulty)
+    {
+        final Bucket bucket = bucket(difficulty);
+        MaskedBoard parent;
+        Entry entry;
+
+        checkWorkers();
+        evict(bucket);
+        entry = bucket.entries.poll();
+        checkLowWater(bucket);
+        if(entry != null)
+        {
+            hits.incrementAndGet();
+            return entry.mboard;
+        }
+
+        // Make another variant of the last puzzle generated.
+        if((parent = bucket.parent) == null)
+            return null;
+        misses.incrementAndGet();
+        return parent.transform(Symmetry.random(new SplittableRandom()));
+    }
+
+    /**
+     * Takes a puzzle out of the pool. This waits only if no puzzle of the
+     * difficulty has been generated yet.
+     *
+     * @param difficulty the difficulty of the puzzle.
+     * @return the puzzle.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws IllegalStateException if a worker failed.
+     */
+    public MaskedBoard take(int difficulty) throws InterruptedException
+    {
+        final Bucket bucket = bucket(difficulty);
+        MaskedBoard mboard = poll(difficulty);
+        Entry entry;
+
+        if(mboard != null)
+            return mboard;
+
+        // Wait for the workers, checking now and then that none have died.
+        while((entry = bucket.entries.poll(IDLE_MILLIS, TimeUnit.MILLISECONDS)) == null)
+            checkWorkers();
+        misses.incrementAndGet();
+        checkLowWater(bucket);
+        return entry.mboard;
+    }
+
+    /**
+     * Gets the number of puzzles ready in a bucket.
+     *
+     * @param difficulty the difficulty of the bucket.
+     * @return the number of puzzles.
+     */
+    public int size(int difficulty)
+    {
+        return bucket(difficulty).entries.size();
+    }
+
+    public Stats getStats()
+    {
+        return new Stats(this);
+    }
+}
@@ -1,104 +1,292 @@
 package hexadoku;
 
 import java.util.*;
-import java.util.concurrent.*;
 
 /**
- * Represents a Hexadoku board.
+ * Represents a randomly populated board. Boards of any geometry are searched
+ * for the same way, with the zone tables and digit masks of their geometry.
+ * Should the search of a board bigger than the standard one keep getting
+ * stuck, the board is scrambled from a pattern instead; see isFromPattern().
  *
  * @author Sam Fredrickson <kinghajj@gmail.com>
  */
 public class RandomBoard extends Board
 {
-    // The possible digihts.
-    private static char[] digits =
-            new char[]
-    {
-        '0', '1', '2', '3', '4', '5', '6', '7',
-        '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
-    };
-    // The board's cells.
-    private char[] cells;
-    // The board's random number generator, used to generate random boards.
-    private Random rand;
+    private final Geometry geometry;
+    // The digit of each cell, or -1 if it is empty.
+    private final byte[] cells;
+    // The digits used by each zone, as masks, and the random number
+    // generator. Both are needed only while the board is generated.
+    private long[] zoneUsed;
+    private SplittableRandom rand;
+    // The number of cells per cell of the board a single search may set
+    // before it is restarted.
+    private static final int NODES_PER_CELL = 4;
+    private final int nodeBudget;
+    // Whether each placement is checked for leaving a zone with no place for
+    // a digit it lacks. Without the check, the search of a board bigger than
+    // the standard one finds such dead ends too late to back out of them
+    // within its budget: most 36x36 searches get stuck. Standard boards and
+    // smaller ones rarely get stuck anyway, and checking them would change
+    // the boards that existing puzzle IDs make.
+    private final boolean checkZones;
+    // The number of searches of a board bigger than the standard one to give
+    // up on before falling back on a pattern. Standard boards and smaller
+    // ones never give up; they rarely need even one restart.
+    private static final int MAX_RESTARTS = 4;
+    private final int maxRestarts;
+    // The number of cells set by the current search, and by all searches.
+    private int attemptNodes, nodes;
+    // The number of times the search was restarted.
+    private int restarts;
+
+    private static final Metrics.Counter NODES = Metrics.counter("board.nodes");
+    private static final Metrics.Counter RESTARTS = Metrics.counter("board.restarts");
+    private static final Metrics.Counter PATTERNS = Metrics.counter("board.patterns");
+    private static final Metrics.Histogram NODES_PER_BOARD = Metrics.histogram("board.nodesPerBoard");
+    private static final Metrics.Histogram NANOS = Metrics.histogram("board.nanos");
 
     private void clearBoard()
     {
-        Arrays.fill(cells, '\0');
+        Arrays.fill(cells, (byte)-1);
+        Arrays.fill(zoneUsed, 0);
     }
 
     /**
-     * Populates a cell, and all the following cells, using a backtracking
-     * algorithm. Calling with the index 0 causes the entire board to be
-     * filled with valid, random values.
+     * Marks a digit as used or unused by a cell's zones. Toggling twice
+     * undoes the first toggle. Only the cell's row, column, and square can
+     * change when it is set, so this is all the bookkeeping a placement
+     * needs.
      *
-     * @param index the index to begin populating the board at.
-     * @return true if populating succeeded.
+     * @param index the index of the cell.
+     * @param bit the mask bit of the digit.
      */
-    private boolean populateCell(int index) throws InterruptedException
+    private void toggleUsed(int index, long bit)
     {
-        if(Thread.interrupted())
-            throw new InterruptedException();
+        zoneUsed[geometry.cellZone(index, 0)] ^= bit;
+        zoneUsed[geometry.cellZone(index, 1)] ^= bit;
+        zoneUsed[geometry.cellZone(index, 2)] ^= bit;
+    }
 
-        // We're done.
-        if(index == NUM_CELLS)
-            return true;
+    /**
+     * Finds the empty cell with the fewest digits left that could go in it.
+     *
+     * @return the index of the cell, or -1 if the board is full.
+     */
+    private int findMostConstrainedCell()
+    {
+        int best = -1, bestCount = geometry.getNumDigits() + 1, count;
+
+        for(int i = 0; i < cells.length; ++i)
+        {
+            if(cells[i] != -1)
+                continue;
+
+            count = Long.bitCount(candidates(i));
+            if(count < bestCount)
+            {
+                best = i;
+                bestCount = count;
+                // It can't get any more constrained than this.
+                if(count <= 1)
+                    break;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Gets the digits that could still go in a cell.
+     *
+     * @param index the index of the cell.
+     * @return a mask with a bit set for each digit its zones don't use yet.
+     */
+    private long candidates(int index)
+    {
+        return ~(zoneUsed[geometry.cellZone(index, 0)] | zoneUsed[geometry.cellZone(index, 1)] |
+                 zoneUsed[geometry.cellZone(index, 2)]) & geometry.getAllDigits();
+    }
+
+    /**
+     * Tests whether a zone has no place left for some of the digits it lacks.
+     *
+     * @param zone the zone.
+     * @param digits a mask of digits the zone doesn't use yet.
+     * @return true if some of them can't go in any of its empty cells.
+     */
+    private boolean isLacking(int zone, long digits)
+    {
+        int index;
+
+        for(int i = 0; i < geometry.getNumDigits() && digits != 0; ++i)
+            if(cells[index = geometry.zoneCell(zone, i)] == -1)
+                digits &= ~candidates(index);
+
+        return digits != 0;
+    }
 
-        // Get a copy of the digits.
-        char[] trydigits = (char[])digits.clone();
+    /**
+     * Tests whether setting a cell has left the board impossible to finish
+     * because some zone has no place for a digit. Only the cell's own zones
+     * lost a place for their other digits, and only the digit just set lost
+     * places elsewhere, so those are all that need checking.
+     *
+     * @param index the index of the cell just set.
+     * @param bit the mask bit of its digit.
+     * @return true if the board can't be finished.
+     */
+    private boolean isDeadEnd(int index, long bit)
+    {
+        int zone;
 
-        // Shuffle the digits.
-        for(int i = 0; i < NUM_DIGITS; ++i)
+        for(int kind = 0; kind < ZONES_PER_CELL; ++kind)
         {
-            int ri = rand.nextInt(NUM_DIGITS);
-            char tmp = trydigits[i];
-            trydigits[i] = trydigits[ri];
-            trydigits[ri] = tmp;
+            zone = geometry.cellZone(index, kind);
+            if(isLacking(zone, ~zoneUsed[zone] & geometry.getAllDigits()))
+                return true;
         }
 
-        // Try each of the digits and backtrack.
-        for(int i = 0; i < NUM_DIGITS; ++i)
+        for(zone = 0; zone < zoneUsed.length; ++zone)
+            if((zoneUsed[zone] & bit) == 0 && isLacking(zone, bit))
+                return true;
+
+        return false;
+    }
+
+    /**
+     * Populates the most constrained empty cell, and then all the rest, using
+     * a backtracking algorithm. Calling it on an empty board causes the
+     * entire board to be filled with valid, random values, unless the search
+     * visits more than nodeBudget cells first. If checkZones is set, a digit
+     * that leaves a dead end is taken back without searching any further.
+     *
+     * @return true if populating succeeded.
+     */
+    private boolean populateCell()
+    {
+        final int index = findMostConstrainedCell();
+        long candidates, bit;
+        int skip;
+
+        // We're done.
+        if(index == -1)
+            return true;
+
+        // Try each of the possible digits, in a random order, and backtrack.
+        candidates = candidates(index);
+        while(candidates != 0 && attemptNodes < nodeBudget)
         {
-            // Set the cell to the current digit.
-            cells[index] = trydigits[i];
+            // Pick one of the remaining digits at random.
+            bit = candidates;
+            for(skip = rand.nextInt(Long.bitCount(candidates)); skip > 0; --skip)
+                bit &= bit - 1;
+            bit = Long.lowestOneBit(bit);
+            candidates &= ~bit;
 
-            // Check if valid; if so, then move onto the next cell. If it
+            // Set the cell to the digit and move onto the next cell. If it
             // succeeds, then we succeed!
-            if(isValid())
-                if(populateCell(index + 1))
-                    return true;
+            nodes++;
+            attemptNodes++;
+            cells[index] = (byte)Long.numberOfTrailingZeros(bit);
+            toggleUsed(index, bit);
+            if(!(checkZones && isDeadEnd(index, bit)) && populateCell())
+                return true;
+            toggleUsed(index, bit);
         }
 
         // Nothing in this path worked, so rollback the cell and try the next.
-        cells[index] = '\0';
+        cells[index] = -1;
         return false;
     }
 
     /**
-     * Verifies the board with the given cell-finder.
+     * Fills the board from a pattern that is always valid, digit(r, c) =
+     * (n * (r % n) + r / n + c) % (n * n), and then scrambles it by the moves
+     * that keep a board valid: relabelling the digits, shuffling the bands,
+     * the rows within each band, the stacks, and the columns within each
+     * stack, and perhaps transposing. This is much faster than searching, but
+     * it can't reach every board, so it's kept for when the search gets stuck.
+     */
+    private void fillFromPattern()
+    {
+        final int n = geometry.getBoxSize(), digits = geometry.getNumDigits();
+        final int[] rows = lines(n), cols = lines(n), labels = shuffle(identity(new int[digits]));
+        final boolean transpose = rand.nextBoolean();
+        int r, c;
+
+        for(int row = 0; row < digits; ++row)
+            for(int col = 0; col < digits; ++col)
+            {
+                r = transpose ? cols[col] : rows[row];
+                c = transpose ? rows[row] : cols[col];
+                cells[row * digits + col] = (byte)labels[(n * (r % n) + r / n + c) % digits];
+            }
+    }
+
+    /**
+     * Makes a random order of rows (or columns) that keeps bands together.
+     */
+    private int[] lines(int n)
+    {
+        final int[] bands = shuffle(identity(new int[n])), lines = new int[n * n], within = new int[n];
+
+        for(int band = 0; band < n; ++band)
+        {
+            shuffle(identity(within));
+            for(int i = 0; i < n; ++i)
+                lines[band * n + i] = bands[band] * n + within[i];
+        }
+
+        return lines;
+    }
+
+    private static int[] identity(int[] array)
+    {
+        for(int i = 0; i < array.length; ++i)
+            array[i] = i;
+        return array;
+    }
+
+    private int[] shuffle(int[] array)
+    {
+        int j, t;
+
+        for(int i = array.length - 1; i > 0; --i)
+        {
+            j = rand.nextInt(i + 1);
+            t = array[i];
+            array[i] = array[j];
+            array[j] = t;
+        }
+
+        return array;
+    }
+
+    /**
+     * Verifies every zone of the board.
      *
-     * @param count an array to store digit counts.
-     * @param finder the cell-finder to use to find cells to check.
      * @return true if verified, else false.
      */
-    private boolean verifyByFinder(int[] count, CellFinder finder)
+    private boolean verifyZones()
     {
-        int digit, i;
+        long used, bit;
 
-        // Examine each zone of a kind determined by the CellFinder.
-        for(int rcs = 0; rcs < NUM_DIGITS; ++rcs)
+        // Examine each row, column, and square.
+        for(int zone = 0; zone < geometry.getNumZones(); ++zone)
         {
+            used = 0;
+
             // Examine each cell in the zone.
-            for(i = 0; i < NUM_DIGITS; ++i)
-                // Count the occurance of this digit.
-                if((digit = digitCharToInt(cells[finder.findCell(i, rcs)])) != -1)
-                    // If it's occured more than once, the board is invalid.
-                    if(++count[digit] > 1)
+            for(int i = 0; i < geometry.getNumDigits(); ++i)
+                if(cells[geometry.zoneCell(zone, i)] != -1)
+                {
+                    // If the digit has occured before, the board is invalid.
+                    bit = 1L << cells[geometry.zoneCell(zone, i)];
+                    if((used & bit) != 0)
                         return false;
-
-            // Clear the count array.
-            for(i = 0; i < NUM_DIGITS; ++i)
-                count[i] = 0;
+                    used |= bit;
+                }
         }
 
         return true;
@@ -109,60 +297,126 @@ public class RandomBoard extends Board
      */
     public RandomBoard()
     {
-        Runnable populateCells;
-        Future<?> populate;
-        boolean finished = false;
-        ExecutorService executor;
+        this(new SplittableRandom());
+    }
 
-        cells = new char[NUM_CELLS];
-        rand = new Random();
+    /**
+     * Creates a new, random board that is the same every time it is created
+     * with the same seed.
+     *
+     * @param seed the seed of the board's random number generator.
+     */
+    public RandomBoard(long seed)
+    {
+        this(new SplittableRandom(seed));
+    }
 
-        populateCells = new Runnable()
-        {
-            public void run()
-            {
-                try
-                {
-                    populateCell(0);
-                }
-                catch(InterruptedException e)
-                {
-                    clearBoard();
-                }
-            }
-        };
+    /**
+     * Creates a new, random board with numbers drawn from the given
+     * generator. The generator is used only by this constructor, and only by
+     * the calling thread.
+     *
+     * @param rand the random number generator to use.
+     */
+    public RandomBoard(SplittableRandom rand)
+    {
+        this(Geometry.STANDARD, rand);
+    }
 
-        // Continue trying to populate the board until it's been done.
-        while(!finished)
-        {
-            // Start the thread population thread.
-            System.out.println("Begining populating cells.");
-            executor = Executors.newCachedThreadPool();
-            populate = executor.submit(populateCells);
+    /**
+     * Creates a new, random board of a given geometry that is the same every
+     * time it is created with the same seed.
+     *
+     * @param geometry the shape of the board.
+     * @param seed the seed of the board's random number generator.
+     */
+    public RandomBoard(Geometry geometry, long seed)
+    {
+        this(geometry, new SplittableRandom(seed));
+    }
 
-            // Wait five seconds for the cells to populate.
-            try
-            {
-                populate.get(1, TimeUnit.SECONDS);
-                finished = true;
-            }
-            catch(Exception e)
-            {
-                System.out.println("Timed out. Restarting...");
-            }
+    /**
+     * Creates a new, random board of a given geometry with numbers drawn from
+     * the given generator. The generator is used only by this constructor,
+     * and only by the calling thread.
+     *
+     * @param geometry the shape of the board.
+     * @param rand the random number generator to use.
+     */
+    public RandomBoard(Geometry geometry, SplittableRandom rand)
+    {
+        final long start = System.nanoTime();
 
-            // Ensure the thread is shutdown.
-            try
-            {
-                populate.cancel(true);
-                while(!populate.isDone()) {}
-                executor.shutdown();
-                executor.awaitTermination(NUM_SQRS, TimeUnit.DAYS);
-            }
-            catch(InterruptedException e)
+        this.geometry = geometry;
+        cells = new byte[geometry.getNumCells()];
+        zoneUsed = new long[geometry.getNumZones()];
+        this.rand = rand;
+        nodeBudget = NODES_PER_CELL * geometry.getNumCells();
+        checkZones = geometry.getNumCells() > NUM_CELLS;
+        maxRestarts = checkZones ? MAX_RESTARTS : Integer.MAX_VALUE;
+        clearBoard();
+
+        // Continue trying to populate the board until it's been done. A
+        // search that gets stuck is abandoned after nodeBudget cells and
+        // restarted from scratch with different random choices.
+        for(attemptNodes = 0; !populateCell(); attemptNodes = 0)
+        {
+            clearBoard();
+            if(++restarts == maxRestarts)
             {
+                fillFromPattern();
+                PATTERNS.increment();
+                break;
             }
         }
+
+        NODES.add(nodes);
+        RESTARTS.add(restarts);
+        NODES_PER_BOARD.record(nodes);
+        NANOS.record(System.nanoTime() - start);
+
+        // Let the search's state go, so a kept board costs only its cells.
+        zoneUsed = null;
+        this.rand = null;
+    }
+
+    /**
+     * Creates a new, random board by searching on every worker of a parallel
+     * search; see ParallelSearch.fill(). Each attempt may visit NODES_PER_CELL
+     * cells per cell of the board per worker before it is restarted. Unlike
+     * the other constructors, this one doesn't make the same board from the
+     * same generator.
+     *
+     * @param rand the random number generator to use.
+     * @param search the search to fill the board with.
+     */
+    public RandomBoard(SplittableRandom rand, ParallelSearch search)
+    {
+        final long start = System.nanoTime();
+        final long budget = (long)NODES_PER_CELL * NUM_CELLS * search.getParallelism();
+
+        geometry = Geometry.STANDARD;
+        cells = new byte[NUM_CELLS];
+        nodeBudget = NODES_PER_CELL * NUM_CELLS;
+        checkZones = false;
+        maxRestarts = Integer.MAX_VALUE;
+        for(nodes = 0; !search.fill(rand, budget); restarts++)
+            nodes += search.getNodes();
+        nodes += search.getNodes();
+
+        for(int i = 0; i < NUM_CELLS; ++i)
+            cells[i] = (byte)search.getSolutionDigit(i);
+
+        NODES.add(nodes);
+        RESTARTS.add(restarts);
+        NODES_PER_BOARD.record(nodes);
+        NANOS.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public Geometry getGeometry()
+    {
+        return geometry;
     }
 
     /**
@@ -173,7 +427,51 @@ public class RandomBoard extends Board
      */
     public char getCellValue(int index)
     {
-        return index >= 0 && index < cells.length ? cells[index] : '\0';
+        return index >= 0 && index < cells.length ? geometry.digitChar(cells[index]) : '\0';
+    }
+
+    /**
+     * Gets a cell's digit.
+     *
+     * @param index the index of the cell.
+     * @return the digit, from 0 to the number of digits less one.
+     */
+    public int getDigit(int index)
+    {
+        return cells[index];
+    }
+
+    /**
+     * Gets the number of cells set while generating the board, including
+     * those set by searches that were restarted.
+     *
+     * @return the number of search nodes.
+     */
+    public int getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Gets the number of times generating the board ran out of nodes and had
+     * to start over.
+     *
+     * @return the number of restarts.
+     */
+    public int getRestarts()
+    {
+        return restarts;
+    }
+
+    /**
+     * Tests whether the board was scrambled from a pattern rather than found
+     * by searching, because the search kept getting stuck.
+     *
+     * @return true if it was.
+     */
+    public boolean isFromPattern()
+    {
+        return restarts == maxRestarts;
     }
 
     /**
@@ -183,11 +481,7 @@ public class RandomBoard extends Board
      */
     public boolean isValid()
     {
-        int[] count = new int[digits.length];
-
-        return verifyByFinder(count, ROW_FINDER) &&
-               verifyByFinder(count, COLUMN_FINDER) &&
-               verifyByFinder(count, SQUARE_FINDER);
+        return verifyZones();
     }
 
     @Override
@@ -196,22 +490,24 @@ public class RandomBoard extends Board
      */
     public String toString()
     {
-        StringBuilder sb = new StringBuilder(NUM_CELLS * 2);
+        final int n = geometry.getBoxSize(), digits = geometry.getNumDigits();
+        final String line = new String(new char[digits + n + 1]).replace('\0', '-');
+        StringBuilder sb = new StringBuilder(cells.length * 2);
 
-        sb.append("---------------------\n");
+        sb.append(line).append('\n');
 
-        for(int i = 0; i < NUM_CELLS; ++i)
+        for(int i = 0; i < cells.length; ++i)
         {
-            if(i % 64 == 0 && i != 0)
-                sb.append("|\n---------------------\n");
-            else if(i % 16 == 0 && i != 0)
+            if(i % (n * digits) == 0 && i != 0)
+                sb.append("|\n").append(line).append('\n');
+            else if(i % digits == 0 && i != 0)
                 sb.append("|\n");
-            if(i % 4 == 0)
+            if(i % n == 0)
                 sb.append('|');
-            sb.append(cells[i]);
+            sb.append(getCellValue(i));
         }
 
-        sb.append("|\n---------------------");
+        sb.append("|\n").append(line);
 
         return sb.toString();
     }
@@ -0,0 +1,51 @@
+package hexadoku;
+
+/**
+ * Validates boards one cell at a time; see Validator.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+final class ScalarValidator extends Validator
+{
+    public String getName()
+    {
+        return "scalar";
+    }
+
+    public boolean zoneMasks(short[] digits, int[] masks)
+    {
+        boolean valid = true;
+        int mask, digit, bit;
+
+        for(int zone = 0; zone < Board.NUM_ZONES; ++zone)
+        {
+            mask = 0;
+            for(int i = 0; i < Board.NUM_DIGITS; ++i)
+                if((digit = digits[Geometry.STANDARD.zoneCell(zone, i)]) >= 0)
+                {
+                    bit = 1 << digit;
+                    if((mask & bit) != 0)
+                        valid = false;
+                    mask |= bit;
+                }
+            masks[zone] = mask;
+        }
+
+        return valid;
+    }
+
+    public void candidates(short[] digits, int[] masks, short[] candidates)
+    {
+        final int n = Board.NUM_DIGITS, sqrs = Board.NUM_SQRS;
+        int i = 0, row;
+
+        for(int r = 0; r < n; ++r)
+        {
+            row = masks[Board.ROW_ZONES + r];
+            for(int c = 0; c < n; ++c, ++i)
+                candidates[i] = digits[i] >= 0 ? 0 :
+                        (short)~(row | masks[Board.COLUMN_ZONES + c] |
+                                 masks[Board.SQUARE_ZONES + (r / sqrs) * sqrs + c / sqrs]);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package hexadoku;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers what became of the masks tried over one solution board, so that
+ * a mask drawn again doesn't have to be solved again. Whether masks are drawn
+ * again often enough to pay for the cache depends on how they are drawn; the
+ * hit and miss counts tell.
+ *
+ * Masks are kept whole, as many longs as their geometry needs, so there are
+ * no false hits. The cache is split into stripes, each guarded by its own
+ * lock, so the workers searching a board can share one. Each stripe holds a
+ * fixed number of entries in flat arrays, found through a linear-probing
+ * index, and evicts with CLOCK: the hand passes over entries that were used
+ * since it last came by, clearing their mark, and evicts the first one that
+ * wasn't.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public class SolvabilityCache
+{
+    // The value get() returns for a mask that isn't in the cache.
+    public static final int MISSING = Integer.MIN_VALUE;
+
+    private static final int STRIPES = 16;
+
+    private static final Metrics.Counter HITS = Metrics.counter("cache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("cache.misses");
+    private static final Metrics.Counter EVICTIONS = Metrics.counter("cache.evictions");
+
+    private static final class Stripe
+    {
+        // The mask, hash, and value of each entry, whether it has been used
+        // since the hand last passed it, and how many entries there are.
+        final long[] keys;
+        final long[] hashes;
+        final int[] values;
+        final boolean[] referenced;
+        int size, hand;
+        // The index: entry + 1 for each slot, or 0 for an empty one. It is
+        // at least twice as big as the number of entries, so probes are short.
+        final int[] index;
+        final int indexMask;
+        // The number of longs in each mask.
+        final int words;
+
+        Stripe(int capacity, int words)
+        {
+            this.words = words;
+            keys = new long[capacity * words];
+            hashes = new long[capacity];
+            values = new int[capacity];
+            referenced = new boolean[capacity];
+            index = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+            indexMask = index.length - 1;
+        }
+
+        boolean matches(int entry, long[] mask)
+        {
+            for(int w = 0; w < words; ++w)
+                if(keys[entry * words + w] != mask[w])
+                    return false;
+
+            return true;
+        }
+
+        /**
+         * Finds the index slot of a mask.
+         *
+         * @return the slot holding the mask's entry, or the empty slot where
+         * it would go.
+         */
+        int find(long[] mask, long hash)
+        {
+            int slot = (int)hash & indexMask, entry;
+
+            while((entry = index[slot]) != 0 && !(hashes[entry - 1] == hash && matches(entry - 1, mask)))
+                slot = (slot + 1) & indexMask;
+
+            return slot;
+        }
+
+        /**
+         * Takes an entry out of the index, moving later entries of its probe
+         * run back so that none is cut off from its home slot.
+         */
+        void unindex(int entry)
+        {
+            int slot = (int)hashes[entry] & indexMask, next, home;
+
+            while(index[slot] != entry + 1)
+                slot = (slot + 1) & indexMask;
+
+            for(next = (slot + 1) & indexMask; index[next] != 0; next = (next + 1) & indexMask)
+            {
+                home = (int)hashes[index[next] - 1] & indexMask;
+                // Move the entry back if the hole lies between its home slot
+                // and where it is now, going around the end if need be.
+                if(((next - home) & indexMask) >= ((next - slot) & indexMask))
+                {
+                    index[slot] = index[next];
+                    slot = next;
+                }
+            }
+
+            index[slot] = 0;
+        }
+
+        int get(long[] mask, long hash)
+        {
+            final int entry = index[find(mask, hash)] - 1;
+
+            if(entry < 0)
+                return MISSING;
+
+            referenced[entry] = true;
+            return values[entry];
+        }
+
+        /**
+         * Adds a mask, evicting another if the stripe is full.
+         *
+         * @return true if an entry was evicted.
+         */
+        boolean put(long[] mask, long hash, int value)
+        {
+            int slot = find(mask, hash), entry;
+            boolean evicted = false;
+
+            if(index[slot] != 0)
+            {
+                values[index[slot] - 1] = value;
+                return false;
+            }
+
+            if(size < values.length)
+                entry = size++;
+            else
+            {
+                while(referenced[hand])
+                {
+                    referenced[hand] = false;
+                    hand = (hand + 1) % values.length;
+                }
+                entry = hand;
+                hand = (hand + 1) % values.length;
+                unindex(entry);
+                slot = find(mask, hash);
+                evicted = true;
+            }
+
+            System.arraycopy(mask, 0, keys, entry * words, words);
+            hashes[entry] = hash;
+            values[entry] = value;
+            referenced[entry] = false;
+            index[slot] = entry + 1;
+            return evicted;
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache of masks over standard boards.
+     *
+     * @param capacity the most masks to remember; it is rounded up to a
+     * multiple of the number of stripes.
+     */
+    public SolvabilityCache(int capacity)
+    {
+        this(capacity, Geometry.STANDARD);
+    }
+
+    /**
+     * Creates an empty cache of masks over boards of a given geometry.
+     *
+     * @param capacity the most masks to remember; it is rounded up to a
+     * multiple of the number of stripes.
+     * @param geometry the shape of the boards masked.
+     */
+    public SolvabilityCache(int capacity, Geometry geometry)
+    {
+        final int words = geometry.createMask().length;
+
+        for(int i = 0; i < STRIPES; ++i)
+            stripes[i] = new Stripe(Math.max(1, (capacity + STRIPES - 1) / STRIPES), words);
+    }
+
+    private Stripe stripe(long hash)
+    {
+        // The low bits pick the index slot, so the high ones pick the stripe.
+        return stripes[(int)(hash >>> 60) & (STRIPES - 1)];
+    }
+
+    /**
+     * Looks up what was remembered of a mask.
+     *
+     * @param mask the mask to look up.
+     * @return the value put() was given for it, or MISSING.
+     */
+    public int get(long[] mask)
+    {
+        final long hash = CellMask.hash(mask);
+        final Stripe stripe = stripe(hash);
+        int value;
+
+        synchronized(stripe)
+        {
+            value = stripe.get(mask, hash);
+        }
+
+        if(value == MISSING)
+        {
+            misses.increment();
+            MISSES.increment();
+        }
+        else
+        {
+            hits.increment();
+            HITS.increment();
+        }
+
+        return value;
+    }
+
+    /**
+     * Remembers something about a mask, such as whether it could be solved.
+     *
+     * @param mask the mask; it is copied.
+     * @param value what to remember, anything but MISSING.
+     */
+    public void put(long[] mask, int value)
+    {
+        final long hash = CellMask.hash(mask);
+        final Stripe stripe = stripe(hash);
+        boolean evicted;
+
+        synchronized(stripe)
+        {
+            evicted = stripe.put(mask, hash, value);
+        }
+
+        if(evicted)
+        {
+            evictions.increment();
+            EVICTIONS.increment();
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+}
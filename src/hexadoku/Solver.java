@@ -1,100 +1,303 @@
 package hexadoku;
 
-import java.util.Arrays;
-
 /**
  * Contains various methods for determining whether a mboard can be solved.
  *
+ * A Solver instance holds the scratch space used to solve boards of one
+ * geometry, so a thread that solves many boards can reuse one instead of
+ * allocating it each time. Instances are not thread-safe.
+ *
  * @author Sam Fredrickson <kinghajj@gmail.com>
  */
 public class Solver
 {
-    private static void eliminateByFinder(MaskedBoard board, int rcs, boolean[] seen, Board.CellFinder finder)
+    /**
+     * A queue of zones that need to be re-examined. Each zone is in the queue
+     * at most once, so the queue never holds more entries than there are
+     * zones.
+     */
+    private static class ZoneQueue
     {
-        int i, j;
+        private final int[] zones;
+        private final boolean[] queued;
+        private int head, size;
+
+        public ZoneQueue(int numZones)
+        {
+            zones = new int[numZones];
+            queued = new boolean[numZones];
+        }
+
+        public void add(int zone)
+        {
+            if(queued[zone])
+                return;
+
+            queued[zone] = true;
+            zones[(head + size++) % zones.length] = zone;
+        }
 
-        for(i = 0; i < Board.NUM_DIGITS; ++i)
+        public int remove()
         {
-            // Get the int form of the ith digit with the finder.
-            // Skip if invalid.
-            if((j = Board.digitCharToInt(board.getCellValue(finder.findCell(i, rcs)))) == -1)
+            final int zone = zones[head];
+
+            head = (head + 1) % zones.length;
+            size--;
+            queued[zone] = false;
+            return zone;
+        }
+
+        public boolean isEmpty()
+        {
+            return size == 0;
+        }
+    }
+
+    private final Geometry geometry;
+    // The digits used by each zone of the board being solved.
+    private final CandidateGrid grid;
+    // The zones that need to be examined again.
+    private final ZoneQueue dirty;
+    // The digits of the last solution read, since a mask search solves the
+    // same board over and over.
+    private Board solution;
+    private final byte[] solutionDigits;
+    // The zones examined and the cells deduced by the current solve.
+    private int passes, deductions;
+    // The cells whose deduction ends the current solve early, if any, and how
+    // many of them are left to deduce.
+    private long[] target;
+    private int targetLeft;
+
+    // The solvers the static methods use: one of each geometry per thread,
+    // made when first needed, so a thread checking many boards allocates
+    // nothing per board.
+    private static final ThreadLocal<Solver[]> SOLVERS = new ThreadLocal<Solver[]>()
+    {
+        @Override
+        protected Solver[] initialValue()
+        {
+            return new Solver[Geometry.MAX_SIZE + 1];
+        }
+    };
+    private static final ThreadLocal<ExactCoverSolver> EXACT_SOLVERS = new ThreadLocal<ExactCoverSolver>()
+    {
+        @Override
+        protected ExactCoverSolver initialValue()
+        {
+            return new ExactCoverSolver();
+        }
+    };
+
+    private static final Metrics.Counter CALLS = Metrics.counter("solver.calls");
+    private static final Metrics.Histogram PASSES = Metrics.histogram("solver.passes");
+    private static final Metrics.Histogram DEDUCTIONS = Metrics.histogram("solver.deductions");
+
+    /**
+     * Creates a solver of standard boards.
+     */
+    public Solver()
+    {
+        this(Geometry.STANDARD);
+    }
+
+    /**
+     * Creates a solver of boards of a given geometry.
+     *
+     * @param geometry the shape of the boards to solve.
+     */
+    public Solver(Geometry geometry)
+    {
+        this.geometry = geometry;
+        this.grid = new CandidateGrid(geometry);
+        this.dirty = new ZoneQueue(geometry.getNumZones());
+        this.solutionDigits = new byte[geometry.getNumCells()];
+    }
+
+    /**
+     * Fills in every cell of a zone that has only one possibility left. Each
+     * filled cell dirties its own row, column, and square.
+     *
+     * @param zone the zone to examine.
+     */
+    private void examineZone(int zone)
+    {
+        final int numDigits = geometry.getNumDigits();
+        int i, index;
+        long candidates;
+
+        for(i = 0; i < numDigits; ++i)
+        {
+            // Skip this cell if it's visible.
+            if(grid.isFilled(index = geometry.zoneCell(zone, i)))
                 continue;
 
-            seen[j] = true;
+            // Only one possibility! We've found it!
+            candidates = grid.candidates(index);
+            if(Long.bitCount(candidates) != 1)
+                continue;
+
+            // The cell's peers may now have only one possibility as well.
+            grid.place(index, Long.numberOfTrailingZeros(candidates));
+            deductions++;
+            if(target != null && CellMask.isSet(target, index))
+                targetLeft--;
+            for(int kind = 0; kind < Board.ZONES_PER_CELL; ++kind)
+                dirty.add(geometry.cellZone(index, kind));
         }
     }
 
-    private static void eliminatePossibilities(MaskedBoard board, int i, boolean[] seen)
+    /**
+     * Fills in every cell of the grid that can be deduced, or, if there is a
+     * target, only until every target cell has been.
+     *
+     * @return true if every cell was filled.
+     */
+    private boolean propagate()
+    {
+        // Every zone needs to be examined at least once. After that, only the
+        // zones of newly filled cells can have anything new to deduce, so
+        // keep going until none are dirty.
+        passes = deductions = 0;
+        for(int zone = 0; zone < geometry.getNumZones(); ++zone)
+            dirty.add(zone);
+        while(!dirty.isEmpty() && targetLeft > 0)
+        {
+            examineZone(dirty.remove());
+            passes++;
+        }
+
+        // Stopping early leaves zones in the queue.
+        while(!dirty.isEmpty())
+            dirty.remove();
+
+        CALLS.increment();
+        PASSES.record(passes);
+        DEDUCTIONS.record(deductions);
+        return grid.isFull();
+    }
+
+    /**
+     * Fills the grid with the cells of a solution that are visible and not
+     * removed.
+     *
+     * @param solution a fully populated board.
+     * @param visible a cell mask of which cells are visible.
+     * @param removed a cell mask of visible cells to leave out, or null.
+     */
+    private void load(Board solution, long[] visible, long[] removed)
+    {
+        if(solution != this.solution)
+        {
+            geometry.digitsOf(solution, solutionDigits);
+            this.solution = solution;
+        }
+
+        grid.clear();
+        for(int i = 0; i < solutionDigits.length; ++i)
+            if(CellMask.isSet(visible, i) && (removed == null || !CellMask.isSet(removed, i)))
+                grid.place(i, solutionDigits[i]);
+    }
+
+    /**
+     * Determines whether a board could be easily solved if only some of its
+     * cells were visible. Neither argument is changed.
+     *
+     * @param solution a fully populated board of this solver's geometry.
+     * @param visible a cell mask of which cells of the board are visible.
+     * @return true if the visible cells are enough to easily solve the board.
+     * @throws IllegalArgumentException if the board has another geometry.
+     */
+    public boolean canSolve(Board solution, long[] visible)
+    {
+        load(solution, visible, null);
+
+        target = null;
+        targetLeft = Integer.MAX_VALUE;
+        return propagate();
+    }
+
+    /**
+     * Determines whether a board that can be easily solved with some cells
+     * visible still can be with a few of them hidden. Everything else follows
+     * from the visible cells, so it follows from the rest as soon as the
+     * hidden ones have been deduced again; the solve stops there, usually well
+     * before the board is full. None of the arguments are changed.
+     *
+     * @param solution a fully populated board of this solver's geometry.
+     * @param visible a cell mask of which cells of the board are visible; the
+     * board must be easily solvable with them.
+     * @param removed a cell mask of the visible cells to hide.
+     * @return true if the board can be easily solved with the removed cells
+     * hidden.
+     * @throws IllegalArgumentException if the board has another geometry.
+     */
+    public boolean canStillSolve(Board solution, long[] visible, long[] removed)
     {
-        // Calculate the column, row, and square for the given index.
-        int col = i % Board.NUM_DIGITS,
-            row = i / Board.NUM_DIGITS,
-            sqr = (row / 4) * 4 + col / 4;
-
-        // Eliminate possibilities by examining the column, row, and square.
-        eliminateByFinder(board, col, seen, Board.COLUMN_FINDER);
-        eliminateByFinder(board, row, seen, Board.ROW_FINDER);
-        eliminateByFinder(board, sqr, seen, Board.SQUARE_FINDER);
+        load(solution, visible, removed);
+
+        target = removed;
+        targetLeft = CellMask.count(removed);
+        propagate();
+        return targetLeft == 0;
     }
 
     /**
-     * Determines whether the given mboard can be easily solved.
+     * Gets the calling thread's solver of a geometry.
+     *
+     * @param geometry the geometry.
+     * @return the solver.
+     */
+    private static Solver forThread(Geometry geometry)
+    {
+        final Solver[] solvers = SOLVERS.get();
+        final int n = geometry.getBoxSize();
+
+        if(solvers[n] == null)
+            solvers[n] = new Solver(geometry);
+
+        return solvers[n];
+    }
+
+    /**
+     * Determines whether the given mboard can be easily solved. Every cell
+     * that can be deduced is revealed.
      * @param mboard the mboard to attempt to solve.
      * @return true if the mboard can be easily solved, else false.
      */
     public static boolean canEasilySolve(MaskedBoard mboard)
     {
-        boolean changed;
-        boolean[] seen = new boolean[Board.NUM_DIGITS];
-        int i;
+        Solver solver;
+        boolean solved;
 
         if(mboard == null)
             return false;
 
-        do
-        {
-            changed = false;
-
-            // Pass through all the cells.
-            for(i = 0; i < Board.NUM_CELLS; ++i)
-            {
-                // Skip this cell if it's visible.
-                if(mboard.getCellValue(i) != '\0')
-                    continue;
-
-                // Assume that everything's possible.
-                Arrays.fill(seen, false);
-
-                // eliminate the possibilities
-                eliminatePossibilities(mboard, i, seen);
-
-                // Find out how many possibilities were unseen, and remember
-                // the last found possibility.
-                int unseenCount = 0, unseenIndex = 0;
-                for(int j = 0; j < seen.length; ++j)
-                    if(!seen[j])
-                    {
-                        if(++unseenCount > 1)
-                            break;
-                        unseenIndex = j;
-                    }
-
-                // Only one possibility! We've found it!
-                if(changed = unseenCount == 1)
-                    // Reveal the correct answer and mark the board as changed.
-                    mboard.reveal(i, Board.intToDigitChar(unseenIndex));
-            }
-            // If the last pass changed the mboard, do another pass to see if any
-            // more cells can be deduced.
-        } while(changed);
-
-        // Now see if there are still any more invisible cells. If there are,
-        // then we were unsuccessful in trying to easily solve the mboard.
-        for(i = 0; i < Board.NUM_CELLS; ++i)
-            if(mboard.getCellValue(i) == '\0')
-                return false;
-
-        // Otherwise, we've revealed all cells, so it worked!
-        return true;
+        solver = forThread(mboard.getGeometry());
+        solver.grid.load(mboard);
+        solver.target = null;
+        solver.targetLeft = Integer.MAX_VALUE;
+        solved = solver.propagate();
+
+        // Reveal the correct answers. If the mboard doesn't agree with one of
+        // them, then it wasn't solved after all.
+        for(int i = 0; i < solver.solutionDigits.length; ++i)
+            if(solver.grid.isFilled(i))
+                solved &= mboard.reveal(i, solver.geometry.digitChar(solver.grid.getDigit(i)));
+
+        return solved;
+    }
+
+    /**
+     * Determines whether the given mboard has exactly one solution, whether
+     * or not it can be easily solved. The mboard is not changed.
+     * @param mboard the mboard to check.
+     * @return true if the mboard has a unique solution, else false.
+     * @throws IllegalArgumentException if the mboard isn't a standard one;
+     * see ExactCoverSolver.
+     */
+    public static boolean hasUniqueSolution(MaskedBoard mboard)
+    {
+        return mboard != null && EXACT_SOLVERS.get().hasUniqueSolution(mboard);
     }
 }
@@ -0,0 +1,176 @@
+package hexadoku;
+
+import java.util.SplittableRandom;
+
+/**
+ * Represents a transformation that turns a valid board into another valid
+ * board: a relabelling of the digits, combined with a rearrangement of the
+ * cells that swaps rows within bands (the rows of a row of squares), bands
+ * with each other, columns within stacks and stacks with each other, and
+ * optionally transposes the board.
+ *
+ * Such a transformation takes every zone onto a zone, so a puzzle and its
+ * transformed mask need exactly the same techniques to solve. That makes it
+ * a nearly free way to get many puzzles out of every one that's generated.
+ *
+ * Symmetries are immutable, and can be used by many threads at once.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public final class Symmetry
+{
+    // The symmetry that changes nothing.
+    public static final Symmetry IDENTITY = new Symmetry(identity(), identity(), false, identity());
+
+    // The cell each cell of a transformed board is taken from.
+    private final int[] cells = new int[Board.NUM_CELLS];
+    // The digit each digit becomes.
+    private final int[] digits = new int[Board.NUM_DIGITS];
+
+    private static int[] identity()
+    {
+        int[] p = new int[Board.NUM_DIGITS];
+
+        for(int i = 0; i < p.length; ++i)
+            p[i] = i;
+
+        return p;
+    }
+
+    /**
+     * Creates a symmetry.
+     *
+     * @param rows the row each row is taken from; it must keep bands whole.
+     * @param cols the column each column is taken from; it must keep stacks
+     * whole.
+     * @param transpose whether to then swap rows with columns.
+     * @param digits the digit each digit becomes.
+     */
+    private Symmetry(int[] rows, int[] cols, boolean transpose, int[] digits)
+    {
+        int row, col;
+
+        for(int i = 0; i < Board.NUM_CELLS; ++i)
+        {
+            row = i / Board.NUM_DIGITS;
+            col = i % Board.NUM_DIGITS;
+            if(transpose)
+                cells[i] = rows[col] * Board.NUM_DIGITS + cols[row];
+            else
+                cells[i] = rows[row] * Board.NUM_DIGITS + cols[col];
+        }
+
+        System.arraycopy(digits, 0, this.digits, 0, Board.NUM_DIGITS);
+    }
+
+    /**
+     * Shuffles an array in place.
+     */
+    private static void shuffle(int[] a, int from, int to, SplittableRandom rand)
+    {
+        int j, t;
+
+        for(int i = to - 1; i > from; --i)
+        {
+            j = from + rand.nextInt(i - from + 1);
+            t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    /**
+     * Creates a random order of the rows (or columns) that keeps each band
+     * (or stack) together.
+     */
+    private static int[] lines(SplittableRandom rand)
+    {
+        final int n = Board.NUM_SQRS;
+        int[] bands = new int[n], within = new int[n], lines = new int[Board.NUM_DIGITS];
+
+        for(int b = 0; b < n; ++b)
+            bands[b] = b;
+        shuffle(bands, 0, n, rand);
+
+        for(int b = 0; b < n; ++b)
+        {
+            for(int k = 0; k < n; ++k)
+                within[k] = k;
+            shuffle(within, 0, n, rand);
+            for(int k = 0; k < n; ++k)
+                lines[b * n + k] = bands[b] * n + within[k];
+        }
+
+        return lines;
+    }
+
+    /**
+     * Creates a random symmetry, drawing every one of its parts with equal
+     * chance.
+     *
+     * @param rand the random number generator to draw from.
+     * @return the symmetry.
+     */
+    public static Symmetry random(SplittableRandom rand)
+    {
+        int[] rows = lines(rand), cols = lines(rand), digits = identity();
+        boolean transpose = rand.nextBoolean();
+
+        shuffle(digits, 0, digits.length, rand);
+        return new Symmetry(rows, cols, transpose, digits);
+    }
+
+    /**
+     * Gets the symmetry with an index. The same index always gives the same
+     * symmetry, so a transformed puzzle can be identified by its original
+     * and an index.
+     *
+     * @param index the index of the symmetry.
+     * @return the symmetry.
+     */
+    public static Symmetry fromIndex(long index)
+    {
+        return random(new SplittableRandom(index));
+    }
+
+    /**
+     * Transforms a fully populated board.
+     *
+     * @param solution the board to transform.
+     * @return the transformed board.
+     * @throws IllegalArgumentException if a cell of the board is empty, or if
+     * the board isn't a standard one.
+     */
+    public PackedBoard apply(final Board solution)
+    {
+        Geometry.STANDARD.check(solution);
+        return new PackedBoard(new Board()
+        {
+            public char getCellValue(int index)
+            {
+                int digit = digitCharToInt(solution.getCellValue(cells[index]));
+
+                return digit == -1 ? '\0' : intToDigitChar(digits[digit]);
+            }
+
+            public boolean isValid()
+            {
+                return solution.isValid();
+            }
+        });
+    }
+
+    /**
+     * Transforms a cell mask.
+     *
+     * @param mask the mask to transform.
+     * @param out receives the transformed mask; it must not be mask itself.
+     */
+    public void apply(long[] mask, long[] out)
+    {
+        CellMask.clearAll(out);
+        for(int i = 0; i < Board.NUM_CELLS; ++i)
+            if(CellMask.isSet(mask, cells[i]))
+                CellMask.set(out, i);
+    }
+}
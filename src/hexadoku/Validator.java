@@ -0,0 +1,97 @@
+package hexadoku;
+
+/**
+ * Checks boards for repeated digits and works out the candidates of their
+ * empty cells, a whole zone at a time. Boards are given as arrays of
+ * NUM_CELLS digits, from 0 to NUM_DIGITS - 1, or -1 for empty cells; see
+ * digitsOf(). Only standard boards can be validated.
+ *
+ * There is a scalar implementation that works everywhere, and one that uses
+ * the incubating Vector API, which lives in the "vector" source directory
+ * and is built by "ant vector". create() picks the vector one when it has
+ * been built and the JVM was started with "--add-modules
+ * jdk.incubator.vector", unless the system property "hexadoku.vector.off"
+ * is set.
+ *
+ * Instances may keep scratch space, so they are not thread-safe.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public abstract class Validator
+{
+    private static final String VECTOR_CLASS = "hexadoku.vector.VectorValidator";
+
+    protected Validator()
+    {
+    }
+
+    /**
+     * Creates the fastest validator available.
+     *
+     * @return the validator.
+     */
+    public static Validator create()
+    {
+        if(!Boolean.getBoolean("hexadoku.vector.off"))
+            try
+            {
+                return (Validator)Class.forName(VECTOR_CLASS).getConstructor().newInstance();
+            }
+            catch(Exception e)
+            {
+                // It wasn't built; fall back on the scalar one.
+            }
+            catch(LinkageError e)
+            {
+                // The Vector API module wasn't added; fall back as well.
+            }
+
+        return new ScalarValidator();
+    }
+
+    /**
+     * Creates a validator that doesn't need the Vector API.
+     *
+     * @return the validator.
+     */
+    public static Validator scalar()
+    {
+        return new ScalarValidator();
+    }
+
+    /**
+     * Reads the digits of a board.
+     *
+     * @param board the board to read.
+     * @param digits receives the digit of each cell, or -1 if it's empty.
+     * @throws IllegalArgumentException if the board isn't a standard one.
+     */
+    public static void digitsOf(Board board, short[] digits)
+    {
+        Geometry.STANDARD.check(board);
+        for(int i = 0; i < Board.NUM_CELLS; ++i)
+            digits[i] = (short)Board.digitCharToInt(board.getCellValue(i));
+    }
+
+    public abstract String getName();
+
+    /**
+     * Finds the digits used by every zone, checking that none is used twice.
+     *
+     * @param digits the digits of the board.
+     * @param masks receives NUM_ZONES masks, with a bit set for each digit a
+     * zone uses.
+     * @return true if no zone uses a digit more than once.
+     */
+    public abstract boolean zoneMasks(short[] digits, int[] masks);
+
+    /**
+     * Finds the candidates of every cell: the digits none of its zones use.
+     *
+     * @param digits the digits of the board.
+     * @param masks the zone masks of the board, from zoneMasks().
+     * @param candidates receives a mask of each cell's candidates, or 0 for
+     * cells that aren't empty.
+     */
+    public abstract void candidates(short[] digits, int[] masks, short[] candidates);
+}
@@ -0,0 +1,133 @@
+package hexadoku.vector;
+
+import hexadoku.Board;
+import hexadoku.Validator;
+import jdk.incubator.vector.*;
+
+/**
+ * Validates boards with the Vector API; see Validator. A row of sixteen
+ * digits fits in one vector of sixteen shorts, so each row is turned into
+ * digit bits with a single shift. Rows are OR-reduced across their lanes,
+ * columns are OR-ed together lane by lane, and the four lanes of each square
+ * in a row are OR-ed together with two shuffles.
+ *
+ * This only works for boards of the standard geometry, with sixteen digits.
+ *
+ * @author Sam Fredrickson <kinghajj@gmail.com>
+ */
+public final class VectorValidator extends Validator
+{
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_256;
+    private static final int N = Board.NUM_DIGITS;
+    private static final int SQRS = Board.NUM_SQRS;
+    private static final ShortVector ONE = ShortVector.broadcast(SPECIES, (short)1);
+    // Swap each lane with its neighbour, and with the lane two over, which
+    // between them spread a value over the four lanes of its square.
+    private static final VectorShuffle<Short> SWAP1 = shuffle(1);
+    private static final VectorShuffle<Short> SWAP2 = shuffle(2);
+
+    // The masks of the columns, and of the squares of each band, by lane.
+    private final short[] columns = new short[N];
+    private final short[] squares = new short[SQRS * N];
+
+    static
+    {
+        if(SPECIES.length() != N || SQRS != 4)
+            throw new ExceptionInInitializerError("VectorValidator needs 16 digits");
+    }
+
+    private static VectorShuffle<Short> shuffle(int distance)
+    {
+        int[] lanes = new int[N];
+
+        for(int i = 0; i < N; ++i)
+            lanes[i] = i ^ distance;
+
+        return VectorShuffle.fromArray(SPECIES, lanes, 0);
+    }
+
+    /**
+     * Turns a row of digits into a vector of digit bits, 0 for empty cells.
+     */
+    private static ShortVector bits(ShortVector digits)
+    {
+        return ONE.lanewise(VectorOperators.LSHL, digits)
+                  .blend((short)0, digits.compare(VectorOperators.LT, (short)0));
+    }
+
+    /**
+     * ORs together the four lanes of each square.
+     */
+    private static ShortVector squareOr(ShortVector v)
+    {
+        v = v.or(v.rearrange(SWAP1));
+        return v.or(v.rearrange(SWAP2));
+    }
+
+    public String getName()
+    {
+        return "vector";
+    }
+
+    public boolean zoneMasks(short[] digits, int[] masks)
+    {
+        ShortVector cols = ShortVector.zero(SPECIES), band = cols, row, bits, sqrs;
+        boolean valid = true;
+        int rowMask;
+
+        for(int r = 0; r < N; ++r)
+        {
+            if(r % SQRS == 0)
+                band = ShortVector.zero(SPECIES);
+
+            row = ShortVector.fromArray(SPECIES, digits, r * N);
+            bits = bits(row);
+
+            // A row repeats a digit if it has fewer bits than digits.
+            rowMask = bits.reduceLanes(VectorOperators.OR) & 0xFFFF;
+            valid &= Integer.bitCount(rowMask) == row.compare(VectorOperators.GE, (short)0).trueCount();
+            masks[Board.ROW_ZONES + r] = rowMask;
+
+            // A column or square repeats one if a bit was already set in it.
+            sqrs = squareOr(bits);
+            valid &= !cols.and(bits).compare(VectorOperators.NE, (short)0).anyTrue();
+            valid &= !band.and(sqrs).compare(VectorOperators.NE, (short)0).anyTrue();
+            cols = cols.or(bits);
+            band = band.or(sqrs);
+
+            if(r % SQRS == SQRS - 1)
+                band.intoArray(squares, (r / SQRS) * N);
+        }
+
+        cols.intoArray(columns, 0);
+        for(int i = 0; i < N; ++i)
+        {
+            masks[Board.COLUMN_ZONES + i] = columns[i] & 0xFFFF;
+            masks[Board.SQUARE_ZONES + i] = squares[(i / SQRS) * N + (i % SQRS) * SQRS] & 0xFFFF;
+        }
+
+        return valid;
+    }
+
+    public void candidates(short[] digits, int[] masks, short[] candidates)
+    {
+        ShortVector cols, row, used;
+
+        for(int i = 0; i < N; ++i)
+        {
+            columns[i] = (short)masks[Board.COLUMN_ZONES + i];
+            for(int b = 0; b < SQRS; ++b)
+                squares[b * N + i] = (short)masks[Board.SQUARE_ZONES + b * SQRS + i / SQRS];
+        }
+
+        cols = ShortVector.fromArray(SPECIES, columns, 0);
+        for(int r = 0; r < N; ++r)
+        {
+            row = ShortVector.fromArray(SPECIES, digits, r * N);
+            used = cols.or(ShortVector.fromArray(SPECIES, squares, (r / SQRS) * N))
+                       .or((short)masks[Board.ROW_ZONES + r]);
+            used.not().blend((short)0, row.compare(VectorOperators.GE, (short)0))
+                .intoArray(candidates, r * N);
+        }
+    }
+}